@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dx.benchmark.SyntheticClasses.MethodSize;
+import com.android.dx.cf.direct.ClassFileScanner;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.util.ByteArray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing a class file with {@link DirectClassFile}, including
+ * its {@code Code} attributes, against scanning it for the classes it
+ * refers to with {@link ClassFileScanner}, as the multidex tools do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassParseBenchmark {
+    private static final String CLASS_NAME = "bench/Parse";
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public MethodSize size;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        bytes = SyntheticClasses.generate(CLASS_NAME, 10, size);
+    }
+
+    @Benchmark
+    public DirectClassFile parse() {
+        return SyntheticClasses.parse(CLASS_NAME, bytes);
+    }
+
+    @Benchmark
+    public ClassFileScanner scan(final Blackhole bh) {
+        ClassFileScanner scanner =
+            new ClassFileScanner(new ByteArray(bytes), CLASS_NAME + ".class");
+        scanner.visitReferencedClasses(new ClassFileScanner.ClassVisitor() {
+            public void visitClass(String name) {
+                bh.consume(name);
+            }
+        });
+        bh.consume(scanner.hasRuntimeVisibleAnnotations());
+        return scanner;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dex.Dex;
+import com.android.dx.benchmark.SyntheticClasses.MethodSize;
+import com.android.dx.merge.CollisionPolicy;
+import com.android.dx.merge.DexMerger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link DexMerger#merge} of 2, 8 and 32 inputs, each holding
+ * distinct classes, as an incremental or multi-library build would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DexMergerBenchmark {
+    @Param({"2", "8", "32"})
+    public int inputs;
+
+    private Dex[] dexes;
+
+    @Setup
+    public void setUp() throws IOException {
+        dexes = new Dex[inputs];
+        for (int i = 0; i < inputs; i++) {
+            dexes[i] = SyntheticClasses.toDex("bench/merge" + i + "/C", 20, 5,
+                    MethodSize.MEDIUM);
+        }
+    }
+
+    @Benchmark
+    public Dex merge() throws IOException {
+        DexMerger merger = new DexMerger(dexes, CollisionPolicy.FAIL);
+        merger.setVerbose(false);
+        return merger.merge();
+    }
+}
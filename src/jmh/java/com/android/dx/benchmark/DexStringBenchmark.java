@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dex.Dex;
+import com.android.dx.benchmark.SyntheticClasses.MethodSize;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading strings of a {@link Dex} and looking them up with
+ * {@link Dex#findStringIndex}, with neither, either or both of the string
+ * cache and the string index enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DexStringBenchmark {
+    @Param({"plain", "cache", "index", "cacheAndIndex"})
+    public String mode;
+
+    private Dex dex;
+    private String[] queries;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] bytes = SyntheticClasses.toDex("bench/Strings", 20, 10,
+                MethodSize.MEDIUM).getBytes();
+        dex = new Dex(bytes);
+        if (mode.equals("cache") || mode.equals("cacheAndIndex")) {
+            dex.enableStringCache(Integer.MAX_VALUE);
+        }
+        if (mode.equals("index") || mode.equals("cacheAndIndex")) {
+            dex.enableStringIndex();
+        }
+
+        List<String> strings = new Dex(bytes).strings();
+        queries = new String[strings.size()];
+        for (int i = 0; i < queries.length; i++) {
+            // Visit the strings in a scattered order.
+            queries[i] = strings.get((int) ((i * 7919L) % queries.length));
+        }
+    }
+
+    @Benchmark
+    public int get() {
+        List<String> strings = dex.strings();
+        int result = 0;
+        for (int i = 0; i < strings.size(); i++) {
+            result += strings.get(i).length();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int find() {
+        int result = 0;
+        for (String query : queries) {
+            result += dex.findStringIndex(query);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dx.rop.code.BasicBlock;
+import com.android.dx.rop.code.BasicBlockList;
+import com.android.dx.rop.code.Insn;
+import com.android.dx.rop.code.InsnList;
+import com.android.dx.rop.code.PlainInsn;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.rop.code.RegisterSpecList;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.code.Rops;
+import com.android.dx.rop.code.SourcePosition;
+import com.android.dx.rop.code.SwitchInsn;
+import com.android.dx.rop.type.Type;
+import com.android.dx.ssa.DomFront;
+import com.android.dx.ssa.SsaBasicBlock;
+import com.android.dx.ssa.SsaConverter;
+import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.IntList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures computing the dominators and dominance frontiers of huge
+ * synthetic control flow graphs with {@link DomFront}. The time should
+ * grow about in proportion to the number of blocks.
+ *
+ * <p>{@link DomFront#run} links the dominator tree into the blocks, so
+ * every invocation first unlinks it. The method itself is only built
+ * once: its blocks keep successor and predecessor bit sets as wide as the
+ * method, so rebuilding it for every invocation would make the
+ * measurements mostly about garbage collection.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DominatorBenchmark {
+    /** Shapes of the generated control flow graphs. */
+    public enum Shape {
+        /**
+         * a loop around a switch with a case per block, like a generated
+         * parser: a wide, shallow dominator tree
+         */
+        SWITCH,
+        /**
+         * a loop around a chain of if-else diamonds: a narrow dominator
+         * tree as deep as a third of the blocks
+         */
+        DIAMONDS
+    }
+
+    private static final RegisterSpec REG = RegisterSpec.make(0, Type.INT);
+
+    @Param({"SWITCH", "DIAMONDS"})
+    public Shape shape;
+
+    @Param({"1024", "4096", "16384"})
+    public int blocks;
+
+    private SsaMethod ssaMethod;
+
+    @Setup
+    public void setUp() {
+        RopMethod method = (shape == Shape.SWITCH) ? switchLoop(blocks)
+                : diamondChain(blocks);
+        ssaMethod = SsaConverter.testEdgeSplit(method, 0, true);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpInvocation() {
+        for (SsaBasicBlock block : ssaMethod.getBlocks()) {
+            block.getDomChildren().clear();
+        }
+    }
+
+    @Benchmark
+    public DomFront.DomInfo[] domFront() {
+        return new DomFront(ssaMethod).run();
+    }
+
+    /**
+     * Makes a method that loops around a switch. Block 0 switches to
+     * one of the case blocks, which all go to the join block, which
+     * either loops back to block 0 or goes to the return block.
+     */
+    private static RopMethod switchLoop(int count) {
+        int cases = Math.max(1, count - 3);
+        int join = cases + 1;
+        int exit = cases + 2;
+        BasicBlockList list = new BasicBlockList(cases + 3);
+
+        IntList caseValues = new IntList(cases);
+        int[] switchSuccessors = new int[cases + 1];
+        for (int i = 0; i < cases; i++) {
+            caseValues.add(i);
+            switchSuccessors[i] = i + 1;
+        }
+        caseValues.setImmutable();
+        switchSuccessors[cases] = exit;
+
+        list.set(0, block(0, new SwitchInsn(Rops.SWITCH,
+                SourcePosition.NO_INFO, null, RegisterSpecList.make(REG),
+                caseValues), exit, switchSuccessors));
+        for (int i = 1; i <= cases; i++) {
+            list.set(i, block(i, jump(), join, join));
+        }
+        list.set(join, block(join, branch(), exit, exit, 0));
+        list.set(exit, block(exit, returnVoid(), -1));
+        list.setImmutable();
+
+        return new RopMethod(list, 0);
+    }
+
+    /**
+     * Makes a method that loops around a chain of diamonds. Each fork
+     * block branches to two blocks which both go to the next fork; the
+     * last fork either loops back to the first or goes to the return
+     * block.
+     */
+    private static RopMethod diamondChain(int count) {
+        int diamonds = Math.max(1, (count - 2) / 3);
+        int last = 3 * diamonds;
+        int exit = last + 1;
+        BasicBlockList list = new BasicBlockList(last + 2);
+
+        for (int i = 0; i < diamonds; i++) {
+            int fork = 3 * i;
+            int next = fork + 3;
+            list.set(fork, block(fork, branch(), fork + 1, fork + 1, fork + 2));
+            list.set(fork + 1, block(fork + 1, jump(), next, next));
+            list.set(fork + 2, block(fork + 2, jump(), next, next));
+        }
+        list.set(last, block(last, branch(), exit, exit, 0));
+        list.set(exit, block(exit, returnVoid(), -1));
+        list.setImmutable();
+
+        return new RopMethod(list, 0);
+    }
+
+    private static Insn jump() {
+        return new PlainInsn(Rops.GOTO, SourcePosition.NO_INFO, null,
+                RegisterSpecList.EMPTY);
+    }
+
+    private static Insn branch() {
+        return new PlainInsn(Rops.IF_EQZ_INT, SourcePosition.NO_INFO, null,
+                REG);
+    }
+
+    private static Insn returnVoid() {
+        return new PlainInsn(Rops.RETURN_VOID, SourcePosition.NO_INFO, null,
+                RegisterSpecList.EMPTY);
+    }
+
+    private static BasicBlock block(int label, Insn insn, int primary,
+            int... successors) {
+        InsnList insns = new InsnList(1);
+        insns.set(0, insn);
+        insns.setImmutable();
+
+        IntList successorList = new IntList(successors.length);
+        for (int successor : successors) {
+            successorList.add(successor);
+        }
+        successorList.setImmutable();
+
+        return new BasicBlock(label, insns, successorList, primary);
+    }
+}
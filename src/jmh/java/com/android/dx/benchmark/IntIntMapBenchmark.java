@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dx.util.IntIntMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link IntIntMap} with a boxing {@link HashMap}, as used for
+ * the offset maps of the merger, on filling a map with scattered
+ * offsets and then looking each of them up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntIntMapBenchmark {
+    @Param({"1000", "100000"})
+    public int size;
+
+    private int[] keys;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        keys = new int[size];
+        for (int i = 0; i < size; i++) {
+            // Offsets are aligned and increasing, with irregular gaps.
+            keys[i] = (i == 0 ? 0 : keys[i - 1]) + 4 * (1 + random.nextInt(16));
+        }
+    }
+
+    @Benchmark
+    public int intIntMap() {
+        IntIntMap map = new IntIntMap(size);
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        int result = 0;
+        for (int key : keys) {
+            result += map.get(key, -1);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public int hashMap() {
+        HashMap<Integer, Integer> map = new HashMap<Integer, Integer>(size);
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        int result = 0;
+        for (int key : keys) {
+            result += map.get(key);
+        }
+        return result;
+    }
+}
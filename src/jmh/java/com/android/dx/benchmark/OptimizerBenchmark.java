@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dx.benchmark.SyntheticClasses.MethodSize;
+import com.android.dx.cf.code.ConcreteMethod;
+import com.android.dx.cf.code.Ropper;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.iface.Method;
+import com.android.dx.cf.iface.MethodList;
+import com.android.dx.rop.code.DexTranslationAdvice;
+import com.android.dx.rop.code.RopMethod;
+import com.android.dx.rop.cst.CstMethodRef;
+import com.android.dx.ssa.Optimizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Optimizer#optimize} over the ropped methods of a class:
+ * SSA conversion, the SSA optimization passes, register allocation and
+ * the conversion back to rop form.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptimizerBenchmark {
+    private static final String CLASS_NAME = "bench/Optimize";
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public MethodSize size;
+
+    private RopMethod[] methods;
+    private int[] paramWidths;
+
+    @Setup
+    public void setUp() {
+        byte[] bytes = SyntheticClasses.generate(CLASS_NAME, 10, size);
+        DirectClassFile cf = SyntheticClasses.parse(CLASS_NAME, bytes);
+        MethodList list = cf.getMethods();
+
+        methods = new RopMethod[list.size()];
+        paramWidths = new int[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            Method one = list.get(i);
+            ConcreteMethod concrete = new ConcreteMethod(one, cf, true, false);
+            methods[i] = Ropper.convert(concrete, DexTranslationAdvice.THE_ONE,
+                    list);
+            paramWidths[i] = new CstMethodRef(cf.getThisClass(), one.getNat())
+                    .getParameterWordCount(true);
+        }
+    }
+
+    @Benchmark
+    public void optimize(Blackhole bh) {
+        for (int i = 0; i < methods.length; i++) {
+            bh.consume(Optimizer.optimize(methods[i], paramWidths[i], true,
+                    false, DexTranslationAdvice.THE_ONE));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dx.benchmark.SyntheticClasses.MethodSize;
+import com.android.dx.dex.DexOptions;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.DexFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures translating a batch of classes with {@link CfTranslator#translate}
+ * on a pool of threads, all interning into one {@link DexFile}, as the
+ * dexer does with {@code --num-threads}. Comparing the time per batch for
+ * each thread count shows how well translation scales, and so how much
+ * the shared intern tables and dex file sections still contend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelTranslateBenchmark {
+    private static final String CLASS_PREFIX = "bench/parallel/C";
+
+    private static final int CLASSES = 64;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private byte[][] classes;
+    private CfOptions cfOptions;
+    private DexOptions dexOptions;
+    private ExecutorService pool;
+
+    @Setup
+    public void setUp() {
+        classes = new byte[CLASSES][];
+        for (int i = 0; i < CLASSES; i++) {
+            classes[i] = SyntheticClasses.generate(CLASS_PREFIX + i, 10,
+                    MethodSize.SMALL);
+        }
+        cfOptions = SyntheticClasses.cfOptions();
+        dexOptions = new DexOptions();
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    public DexFile translate() throws InterruptedException, ExecutionException {
+        final DexFile dexFile = new DexFile(dexOptions);
+        List<Callable<ClassDefItem>> tasks =
+            new ArrayList<Callable<ClassDefItem>>(CLASSES);
+
+        for (int i = 0; i < CLASSES; i++) {
+            final String name = CLASS_PREFIX + i;
+            final byte[] bytes = classes[i];
+            tasks.add(new Callable<ClassDefItem>() {
+                @Override
+                public ClassDefItem call() {
+                    // Parsed classes aren't thread-safe, so each task parses.
+                    return CfTranslator.translate(
+                            SyntheticClasses.parse(name, bytes), bytes,
+                            cfOptions, dexOptions, dexFile);
+                }
+            });
+        }
+
+        for (Future<ClassDefItem> future : pool.invokeAll(tasks)) {
+            future.get();
+        }
+
+        return dexFile;
+    }
+}
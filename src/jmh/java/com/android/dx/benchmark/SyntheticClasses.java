@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dex.Dex;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.dex.DexOptions;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.file.DexFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Generates the class files the benchmarks work on, so that they need
+ * neither a compiler nor any input files. Each class has a number of
+ * static {@code int m<n>(int, int)} methods made of a loop around a
+ * sequence of blocks; every block does some arithmetic, a conditional
+ * update, a string constant load and a virtual call, and every fourth
+ * block also calls a static helper. That gives the ropper, the SSA
+ * optimizer and the register allocator branches, phis and invokes to work
+ * on, and the dex output a realistic mix of strings and method refs.
+ */
+public final class SyntheticClasses {
+    /** Sizes of the generated methods. */
+    public enum MethodSize {
+        /** a couple of blocks, like an accessor or a small helper */
+        SMALL(2),
+        /** a few hundred bytecodes, like a typical business method */
+        MEDIUM(40),
+        /** a method near the size limit of a branch offset */
+        LARGE(800);
+
+        /** number of blocks in the loop body */
+        final int blocks;
+
+        MethodSize(int blocks) {
+            this.blocks = blocks;
+        }
+    }
+
+    /** iterations of the loop around the blocks */
+    private static final int LOOP_COUNT = 3;
+
+    /**
+     * This class is uninstantiable.
+     */
+    private SyntheticClasses() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Returns the class file name of a generated class, for
+     * {@link DirectClassFile}.
+     *
+     * @param className {@code non-null;} internal name of the class
+     * @return {@code non-null;} the file name
+     */
+    public static String fileName(String className) {
+        return className + ".class";
+    }
+
+    /**
+     * Generates a class file.
+     *
+     * @param className {@code non-null;} internal name of the class, such as
+     * {@code "bench/C0"}
+     * @param methods {@code >= 0;} number of methods, besides the helper
+     * @param size {@code non-null;} size of each method
+     * @return {@code non-null;} the class file bytes
+     */
+    public static byte[] generate(String className, int methods, MethodSize size) {
+        try {
+            return new ClassWriter(className).write(methods, size);
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /**
+     * Parses a generated class file.
+     *
+     * @param className {@code non-null;} internal name of the class
+     * @param bytes {@code non-null;} the class file bytes
+     * @return {@code non-null;} the parsed class
+     */
+    public static DirectClassFile parse(String className, byte[] bytes) {
+        DirectClassFile cf = new DirectClassFile(bytes, fileName(className),
+                true);
+        cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        cf.getMagic(); // triggers the actual parsing
+        return cf;
+    }
+
+    /**
+     * Returns the translation options the benchmarks use, which are those
+     * of a default {@code dx --dex} run.
+     *
+     * @return {@code non-null;} the options
+     */
+    public static CfOptions cfOptions() {
+        CfOptions options = new CfOptions();
+        options.optimize = true;
+        return options;
+    }
+
+    /**
+     * Translates generated classes to a dex file.
+     *
+     * @param prefix {@code non-null;} internal name prefix of the classes,
+     * such as {@code "bench/a/C"}, which keeps classes of different dex
+     * files apart
+     * @param classes {@code >= 0;} number of classes
+     * @param methods {@code >= 0;} number of methods of each class
+     * @param size {@code non-null;} size of each method
+     * @return {@code non-null;} the dex file, not yet written out
+     */
+    public static DexFile translate(String prefix, int classes, int methods,
+            MethodSize size) {
+        DexOptions dexOptions = new DexOptions();
+        CfOptions cfOptions = cfOptions();
+        DexFile dexFile = new DexFile(dexOptions);
+
+        for (int i = 0; i < classes; i++) {
+            String name = prefix + i;
+            byte[] bytes = generate(name, methods, size);
+            dexFile.add(CfTranslator.translate(parse(name, bytes), bytes,
+                    cfOptions, dexOptions, dexFile));
+        }
+
+        return dexFile;
+    }
+
+    /**
+     * Translates generated classes and writes them out as a dex file.
+     *
+     * @see #translate
+     */
+    public static Dex toDex(String prefix, int classes, int methods,
+            MethodSize size) throws IOException {
+        return new Dex(translate(prefix, classes, methods, size)
+                .toDex(null, false));
+    }
+
+    /**
+     * Writes one class file.
+     */
+    private static final class ClassWriter {
+        /** {@code non-null;} internal name of the class */
+        private final String className;
+
+        /** {@code non-null;} constant pool entries, by key */
+        private final Map<String, Integer> constants =
+            new LinkedHashMap<String, Integer>();
+
+        /** {@code non-null;} the constant pool, as written */
+        private final ByteArrayOutputStream poolBytes =
+            new ByteArrayOutputStream();
+
+        /** {@code non-null;} {@link #poolBytes}, as a data stream */
+        private final DataOutputStream pool = new DataOutputStream(poolBytes);
+
+        /** next free constant pool index */
+        private int nextIndex = 1;
+
+        ClassWriter(String className) {
+            this.className = className;
+        }
+
+        byte[] write(int methods, MethodSize size) throws IOException {
+            int thisClass = classRef(className);
+            int superClass = classRef("java/lang/Object");
+            int code = utf8("Code");
+            int helper = methodRef(className, "helper", "(II)I");
+            int hashCode = methodRef("java/lang/String", "hashCode", "()I");
+
+            ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(methodBytes);
+
+            writeMethod(out, code, "helper", new byte[] {
+                    0x1a, 0x1b, (byte) 0x82, (byte) 0xac // iload_0, iload_1, ixor, ireturn
+            });
+            for (int i = 0; i < methods; i++) {
+                writeMethod(out, code, "m" + i,
+                        body(i, size.blocks, helper, hashCode));
+            }
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            DataOutputStream file = new DataOutputStream(result);
+            file.writeInt(0xcafebabe);
+            file.writeShort(0);               // minor_version
+            file.writeShort(50);              // major_version
+            pool.flush();
+            file.writeShort(nextIndex);       // constant_pool_count
+            file.write(poolBytes.toByteArray());
+            file.writeShort(0x0021);          // ACC_PUBLIC | ACC_SUPER
+            file.writeShort(thisClass);
+            file.writeShort(superClass);
+            file.writeShort(0);               // interfaces_count
+            file.writeShort(0);               // fields_count
+            file.writeShort(methods + 1);     // methods_count
+            out.flush();
+            file.write(methodBytes.toByteArray());
+            file.writeShort(0);               // attributes_count
+            file.flush();
+            return result.toByteArray();
+        }
+
+        /**
+         * Writes a {@code public static int name(int, int)} method.
+         */
+        private void writeMethod(DataOutputStream out, int code, String name,
+                byte[] insns) throws IOException {
+            out.writeShort(0x0009);           // ACC_PUBLIC | ACC_STATIC
+            out.writeShort(utf8(name));
+            out.writeShort(utf8("(II)I"));
+            out.writeShort(1);                // attributes_count
+            out.writeShort(code);
+            out.writeInt(12 + insns.length);  // attribute_length
+            out.writeShort(4);                // max_stack
+            out.writeShort(5);                // max_locals
+            out.writeInt(insns.length);
+            out.write(insns);
+            out.writeShort(0);                // exception_table_length
+            out.writeShort(0);                // attributes_count
+        }
+
+        /**
+         * Generates the bytecode of method {@code m<method>}; see the class
+         * comment.
+         */
+        private byte[] body(int method, int blocks, int helper, int hashCode)
+                throws IOException {
+            Code c = new Code();
+
+            c.op(0x03);                       // iconst_0
+            c.op(0x36, 4);                    // istore 4
+            int top = c.pc();
+            c.op(0x15, 4);                    // iload 4
+            c.op(0x10, LOOP_COUNT);           // bipush
+            int exit = c.branch(0xa2);        // if_icmpge
+
+            for (int b = 0; b < blocks; b++) {
+                c.op(0x1a); c.op(0x1b); c.op(0x60); c.op(0x3d);
+                                              // a0 + a1 -> l2
+                c.op(0x1c); c.op(0x10, (b % 100) + 2); c.op(0x68); c.op(0x3e);
+                                              // l2 * k -> l3
+                c.op(0x1d); c.op(0x1a);
+                int skip = c.branch(0xa2);    // if (l3 >= a0) skip
+                c.op(0x84, 2, 1);             // iinc 2, 1
+                c.op(0x1d); c.op(0x1c); c.op(0x82); c.op(0x3b);
+                                              // l3 ^ l2 -> a0
+                c.target(skip);
+                c.opIndex(0x13, string("s" + method + "_" + b)); // ldc_w
+                c.opIndex(0xb6, hashCode);    // invokevirtual
+                c.op(0x1b); c.op(0x60); c.op(0x3c);
+                                              // + a1 -> a1
+                if ((b & 3) == 3) {
+                    c.op(0x1b); c.op(0x1d);
+                    c.opIndex(0xb8, helper);  // invokestatic
+                    c.op(0x3c);               // -> a1
+                }
+            }
+
+            c.op(0x84, 4, 1);                 // iinc 4, 1
+            c.target(c.branch(0xa7), top);    // goto top
+            c.target(exit);
+            c.op(0x1a); c.op(0x1b); c.op(0x60); c.op(0xac);
+                                              // return a0 + a1
+            return c.toByteArray();
+        }
+
+        private int utf8(String s) throws IOException {
+            Integer index = constants.get("U" + s);
+            if (index == null) {
+                pool.writeByte(1);
+                pool.writeUTF(s);
+                index = add("U" + s);
+            }
+            return index;
+        }
+
+        private int string(String s) throws IOException {
+            Integer index = constants.get("S" + s);
+            if (index == null) {
+                int utf8 = utf8(s);
+                pool.writeByte(8);
+                pool.writeShort(utf8);
+                index = add("S" + s);
+            }
+            return index;
+        }
+
+        private int classRef(String name) throws IOException {
+            Integer index = constants.get("C" + name);
+            if (index == null) {
+                int utf8 = utf8(name);
+                pool.writeByte(7);
+                pool.writeShort(utf8);
+                index = add("C" + name);
+            }
+            return index;
+        }
+
+        private int methodRef(String owner, String name, String descriptor)
+                throws IOException {
+            String key = "M" + owner + "." + name + descriptor;
+            Integer index = constants.get(key);
+            if (index == null) {
+                int ownerIndex = classRef(owner);
+                int nat = nameAndType(name, descriptor);
+                pool.writeByte(10);           // CONSTANT_Methodref
+                pool.writeShort(ownerIndex);
+                pool.writeShort(nat);
+                index = add(key);
+            }
+            return index;
+        }
+
+        private int nameAndType(String name, String descriptor)
+                throws IOException {
+            String key = "N" + name + ":" + descriptor;
+            Integer index = constants.get(key);
+            if (index == null) {
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                pool.writeByte(12);           // CONSTANT_NameAndType
+                pool.writeShort(nameIndex);
+                pool.writeShort(descriptorIndex);
+                index = add(key);
+            }
+            return index;
+        }
+
+        private int add(String key) {
+            int index = nextIndex++;
+            constants.put(key, index);
+            return index;
+        }
+    }
+
+    /**
+     * Bytecode buffer with forward and backward branch patching.
+     */
+    private static final class Code {
+        /** {@code non-null;} the bytecode */
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        /** {@code non-null;} the branch offsets to patch, by position */
+        private final Map<Integer, Integer> branches =
+            new LinkedHashMap<Integer, Integer>();
+
+        int pc() {
+            return bytes.size();
+        }
+
+        void op(int... values) {
+            for (int value : values) {
+                bytes.write(value);
+            }
+        }
+
+        void opIndex(int opcode, int index) {
+            bytes.write(opcode);
+            bytes.write(index >> 8);
+            bytes.write(index);
+        }
+
+        /**
+         * Writes a branch with an offset to be patched by {@link #target}.
+         *
+         * @return the position of the branch
+         */
+        int branch(int opcode) {
+            int pc = pc();
+            opIndex(opcode, 0);
+            return pc;
+        }
+
+        /**
+         * Makes the branch at {@code branch} go to the current position.
+         */
+        void target(int branch) {
+            target(branch, pc());
+        }
+
+        /**
+         * Makes the branch at {@code branch} go to {@code target}.
+         */
+        void target(int branch, int target) {
+            int offset = target - branch;
+            if (offset != (short) offset) {
+                throw new IllegalStateException("branch too far: " + offset);
+            }
+            branches.put(branch, offset);
+        }
+
+        byte[] toByteArray() {
+            byte[] result = bytes.toByteArray();
+            for (Map.Entry<Integer, Integer> branch : branches.entrySet()) {
+                int at = branch.getKey();
+                int offset = branch.getValue();
+                result[at + 1] = (byte) (offset >> 8);
+                result[at + 2] = (byte) offset;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dx.benchmark.SyntheticClasses.MethodSize;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.dex.DexOptions;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.file.ClassDefItem;
+import com.android.dx.dex.file.DexFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link CfTranslator#translate} of a class with ten methods of
+ * each size class, which covers ropping, optimization, register
+ * allocation and dex code generation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TranslateBenchmark {
+    private static final String CLASS_NAME = "bench/Translate";
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public MethodSize size;
+
+    private byte[] bytes;
+    private DirectClassFile cf;
+    private CfOptions cfOptions;
+    private DexOptions dexOptions;
+
+    @Setup
+    public void setUp() {
+        bytes = SyntheticClasses.generate(CLASS_NAME, 10, size);
+        cf = SyntheticClasses.parse(CLASS_NAME, bytes);
+        cfOptions = SyntheticClasses.cfOptions();
+        dexOptions = new DexOptions();
+    }
+
+    @Benchmark
+    public ClassDefItem translate() {
+        return CfTranslator.translate(cf, bytes, cfOptions, dexOptions,
+                new DexFile(dexOptions));
+    }
+}
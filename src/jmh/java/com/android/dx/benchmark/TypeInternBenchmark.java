@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.benchmark;
+
+import com.android.dx.rop.type.Type;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Type#intern} of already interned descriptors from
+ * several threads at once, as the translation threads of the dexer do.
+ *
+ * <p>The intern table only refers weakly to types, so the interned types
+ * are kept here; otherwise they could be collected, and the benchmark
+ * would measure interning new types rather than finding them.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class TypeInternBenchmark {
+    private String[] descriptors;
+    private Type[] types;
+
+    @Setup
+    public void setUp() {
+        descriptors = new String[1024];
+        types = new Type[descriptors.length];
+        for (int i = 0; i < descriptors.length; i++) {
+            String descriptor = "Lbench/intern/C" + i + ";";
+            types[i] = Type.intern(descriptor);
+            // A different instance, so that lookups hash and compare.
+            descriptors[i] = new String(descriptor);
+        }
+    }
+
+    @Benchmark
+    public void intern(Blackhole bh) {
+        for (String descriptor : descriptors) {
+            bh.consume(Type.intern(descriptor));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.merge;
+
+import com.android.dex.ClassData;
+import com.android.dex.ClassDef;
+import com.android.dex.Dex;
+import com.android.dx.benchmark.SyntheticClasses;
+import com.android.dx.benchmark.SyntheticClasses.MethodSize;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link InstructionTransformer#transform}, which decodes, remaps
+ * and re-encodes the code of every method during a merge. The index map
+ * reverses every index, so that the remapping isn't trivially the
+ * identity.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstructionTransformerBenchmark {
+    private List<short[]> code;
+    private IndexMap indexMap;
+    private InstructionTransformer transformer;
+
+    @Setup
+    public void setUp() throws IOException {
+        Dex dex = SyntheticClasses.toDex("bench/Transform", 20, 10,
+                MethodSize.MEDIUM);
+
+        code = new ArrayList<short[]>();
+        for (ClassDef classDef : dex.classDefs()) {
+            if (classDef.getClassDataOffset() == 0) {
+                continue;
+            }
+            for (ClassData.Method method
+                    : dex.readClassData(classDef).allMethods()) {
+                if (method.getCodeOffset() != 0) {
+                    code.add(dex.readCode(method).getInstructions());
+                }
+            }
+        }
+
+        indexMap = new IndexMap(dex, dex.getTableOfContents());
+        reverse(indexMap.stringIds);
+        reverse(indexMap.typeIds);
+        reverse(indexMap.fieldIds);
+        reverse(indexMap.methodIds);
+        transformer = new InstructionTransformer();
+    }
+
+    @Benchmark
+    public void transform(Blackhole bh) {
+        for (short[] instructions : code) {
+            bh.consume(transformer.transform(indexMap, instructions));
+        }
+    }
+
+    /**
+     * Maps index {@code i} of an index array to {@code length - 1 - i}.
+     */
+    private static void reverse(int[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ids.length - 1 - i;
+        }
+    }
+
+    private static void reverse(short[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (short) (ids.length - 1 - i);
+        }
+    }
+}
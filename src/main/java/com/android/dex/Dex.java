@@ -30,10 +30,16 @@ import java.io.OutputStream;
 import java.io.UTFDataFormatException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.AbstractList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -65,6 +71,19 @@ public final class Dex {
     private final FieldIdTable fieldIds = new FieldIdTable();
     private final MethodIdTable methodIds = new MethodIdTable();
 
+    /**
+     * {@code null-ok;} decoded strings by string index, or null if string
+     * caching hasn't been enabled. Slots are filled lazily; racing readers may
+     * decode the same string twice but always observe equal values.
+     */
+    private volatile String[] stringCache;
+    /** number of chars that may still be added to {@link #stringCache} */
+    private int stringCacheBudget;
+    /** whether {@link #findStringIndex} should use a hash index */
+    private volatile boolean stringIndexEnabled;
+    /** {@code null-ok;} string to string index, built on first lookup */
+    private volatile HashMap<String, Integer> stringIndex;
+
     /**
      * Creates a new dex that reads from {@code data}. It is an error to modify
      * {@code data} after using it to create a dex buffer.
@@ -139,6 +158,74 @@ public final class Dex {
         return new Dex(data);
     }
 
+    /**
+     * Creates a new dex backed by the file at {@code path} without copying its
+     * contents onto the heap. A {@code .dex} or {@code .odex} file is mapped
+     * read-only into memory; the {@code classes.dex} entry of a {@code .zip},
+     * {@code .jar} or {@code .apk} is inflated directly into a direct buffer
+     * sized from its entry header.
+     *
+     * <p>The returned dex is read-only: it may be used as a merge input or
+     * inspected, but sections opened on it cannot be written. The file must
+     * not be truncated or rewritten while the returned dex is in use.
+     */
+    public static Dex open(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        if (FileUtils.hasArchiveSuffix(name)) {
+            ZipFile zipFile = new ZipFile(path.toFile());
+            try {
+                ZipEntry entry = zipFile.getEntry(DexFormat.DEX_IN_JAR_NAME);
+                if (entry == null) {
+                    throw new DexException("Expected " + DexFormat.DEX_IN_JAR_NAME + " in " + path);
+                }
+                long size = entry.getSize();
+                if (size < 0 || size > Integer.MAX_VALUE) {
+                    // The entry doesn't declare its size; fall back to streaming.
+                    return new Dex(zipFile.getInputStream(entry));
+                }
+                return create(readFully(zipFile.getInputStream(entry), (int) size, path));
+            } finally {
+                zipFile.close();
+            }
+        } else if (name.endsWith(".dex") || name.endsWith(".odex")) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new DexException(path + ": file too long");
+                }
+                // The mapping stays valid after the channel is closed.
+                return create(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            } finally {
+                channel.close();
+            }
+        } else {
+            throw new DexException("unknown input extension: " + path);
+        }
+    }
+
+    /**
+     * Reads exactly {@code size} bytes from {@code in} into a new direct
+     * buffer, and closes {@code in}.
+     */
+    private static ByteBuffer readFully(InputStream in, int size, Path path)
+            throws IOException {
+        ByteBuffer result = ByteBuffer.allocateDirect(size);
+        ReadableByteChannel channel = Channels.newChannel(in);
+        try {
+            while (result.hasRemaining()) {
+                if (channel.read(result) == -1) {
+                    throw new DexException(path + ": unexpected EOF in "
+                            + DexFormat.DEX_IN_JAR_NAME);
+                }
+            }
+        } finally {
+            channel.close();
+        }
+        result.flip();
+        return result;
+    }
+
     private void loadFrom(InputStream in) throws IOException {
         ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
         byte[] buffer = new byte[8192];
@@ -226,6 +313,92 @@ public final class Dex {
         return result;
     }
 
+    /**
+     * Enables a lazily populated cache of decoded strings so that repeated
+     * calls to {@code strings().get()}, {@code typeNames().get()} and the
+     * binary searches behind {@link #findStringIndex} and
+     * {@link #findTypeIndex} don't re-run MUTF-8 decoding. Once strings
+     * totalling {@code maxCachedChars} chars are cached, further strings are
+     * decoded on every access as before.
+     *
+     * @param maxCachedChars {@code >= 0;} upper bound on the total length of
+     *     the cached strings
+     */
+    public synchronized void enableStringCache(int maxCachedChars) {
+        if (maxCachedChars < 0) {
+            throw new IllegalArgumentException("maxCachedChars < 0");
+        }
+        if (stringCache == null) {
+            stringCacheBudget = maxCachedChars;
+            stringCache = new String[tableOfContents.stringIds.size];
+        }
+    }
+
+    /**
+     * Enables a hash index from string to string index, used by
+     * {@link #findStringIndex} and {@link #findTypeIndex} for strings
+     * present in this dex. The index is built on the first lookup with one
+     * sequential pass over the string data; it holds every string of this dex
+     * regardless of the string cache's bound.
+     */
+    public void enableStringIndex() {
+        stringIndexEnabled = true;
+    }
+
+    /**
+     * Returns the decoded string at {@code index}, consulting and filling the
+     * string cache if it is enabled.
+     */
+    private String readString(int index) {
+        String[] cache = stringCache;
+        if (cache == null) {
+            return open(tableOfContents.stringIds.off + (index * SizeOf.STRING_ID_ITEM))
+                    .readString();
+        }
+        String result = cache[index];
+        if (result == null) {
+            result = open(tableOfContents.stringIds.off + (index * SizeOf.STRING_ID_ITEM))
+                    .readString();
+            cacheString(cache, index, result);
+        }
+        return result;
+    }
+
+    private void cacheString(String[] cache, int index, String value) {
+        synchronized (this) {
+            if (cache[index] == null && value.length() <= stringCacheBudget) {
+                stringCacheBudget -= value.length();
+                cache[index] = value;
+            }
+        }
+    }
+
+    private HashMap<String, Integer> getStringIndex() {
+        HashMap<String, Integer> result = stringIndex;
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            if (stringIndex == null) {
+                int size = tableOfContents.stringIds.size;
+                String[] cache = stringCache;
+                result = new HashMap<String, Integer>(size * 4 / 3 + 1);
+                if (size > 0) {
+                    Section in = open(tableOfContents.stringIds.off);
+                    for (int i = 0; i < size; i++) {
+                        String string = in.readString();
+                        result.put(string, i);
+                        if (cache != null) {
+                            cacheString(cache, i, string);
+                        }
+                    }
+                }
+                stringIndex = result;
+            }
+            return stringIndex;
+        }
+    }
+
     public List<String> strings() {
         return strings;
     }
@@ -323,8 +496,15 @@ public final class Dex {
      * writes them to the file.
      */
     public void writeHashes() throws IOException {
-        open(SIGNATURE_OFFSET).write(computeSignature());
-        open(CHECKSUM_OFFSET).writeInt(computeChecksum());
+        // One pass for both, rather than computeSignature() and then
+        // computeChecksum().
+        DexHasher hasher = new DexHasher();
+        ByteBuffer data = this.data.duplicate(); // positioned ByteBuffers aren't thread safe
+        data.limit(data.capacity());
+        data.position(DexHasher.HASHED_START);
+        hasher.update(data);
+        open(SIGNATURE_OFFSET).write(hasher.getSignature());
+        open(CHECKSUM_OFFSET).writeInt(hasher.getChecksum());
     }
 
     /**
@@ -340,10 +520,27 @@ public final class Dex {
     }
 
     public int findStringIndex(String s) {
+        if (stringIndexEnabled) {
+            Integer index = getStringIndex().get(s);
+            if (index != null) {
+                return index;
+            }
+            // Fall through to compute the insertion point of a missing string.
+        }
         return Collections.binarySearch(strings, s);
     }
 
     public int findTypeIndex(String descriptor) {
+        if (stringIndexEnabled) {
+            Integer stringIndex = getStringIndex().get(descriptor);
+            if (stringIndex != null) {
+                // Type ids are sorted by string index.
+                int typeIndex = Collections.binarySearch(typeIds, stringIndex);
+                if (typeIndex >= 0) {
+                    return typeIndex;
+                }
+            }
+        }
         return Collections.binarySearch(typeNames, descriptor);
     }
 
@@ -888,8 +1085,7 @@ public final class Dex {
     private final class StringTable extends AbstractList<String> implements RandomAccess {
         @Override public String get(int index) {
             checkBounds(index, tableOfContents.stringIds.size);
-            return open(tableOfContents.stringIds.off + (index * SizeOf.STRING_ID_ITEM))
-                    .readString();
+            return readString(index);
         }
         @Override public int size() {
             return tableOfContents.stringIds.size;
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dex;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.Adler32;
+
+/**
+ * Computes the signature and the checksum of a dex file in a single pass.
+ *
+ * <p>The checksum covers everything after itself, the signature included,
+ * while the signature covers everything after itself. So the bytes past
+ * the signature are fed to both the SHA-1 and an Adler-32 as they come,
+ * and once the signature is known its Adler-32 is combined with that of
+ * the rest, as zlib's {@code adler32_combine()} does. Feeding each chunk
+ * to both sums while it is still in the cache reads the file from memory
+ * only once.</p>
+ */
+public final class DexHasher {
+    /** file offset of the checksum */
+    public static final int CHECKSUM_OFFSET = 8;
+
+    /** file offset of the signature */
+    public static final int SIGNATURE_OFFSET = CHECKSUM_OFFSET + SizeOf.UINT;
+
+    /** file offset of the first byte covered by the signature */
+    public static final int HASHED_START = SIGNATURE_OFFSET + SizeOf.SIGNATURE;
+
+    /** modulus of the Adler-32 sums */
+    private static final int ADLER_MOD = 65521;
+
+    /** size of the chunks that buffers are fed in */
+    private static final int CHUNK_SIZE = 8192;
+
+    /** {@code non-null;} the signature digest */
+    private final MessageDigest digest;
+
+    /** {@code non-null;} checksum of the bytes past the signature */
+    private final Adler32 adler = new Adler32();
+
+    /** {@code >= 0;} number of bytes fed so far */
+    private long length;
+
+    /** {@code null-ok;} the signature, once computed */
+    private byte[] signature;
+
+    public DexHasher() {
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError();
+        }
+    }
+
+    /**
+     * Feeds the next bytes past the signature.
+     */
+    public void update(byte[] bytes, int offset, int count) {
+        checkNotFinished();
+        digest.update(bytes, offset, count);
+        adler.update(bytes, offset, count);
+        length += count;
+    }
+
+    /**
+     * Feeds the remaining bytes of {@code data}, which are the next bytes
+     * past the signature, and leaves it positioned at its limit.
+     */
+    public void update(ByteBuffer data) {
+        checkNotFinished();
+        if (data.hasArray()) {
+            byte[] array = data.array();
+            int offset = data.arrayOffset();
+            while (data.hasRemaining()) {
+                int count = Math.min(CHUNK_SIZE, data.remaining());
+                update(array, offset + data.position(), count);
+                data.position(data.position() + count);
+            }
+        } else {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            while (data.hasRemaining()) {
+                int count = Math.min(buffer.length, data.remaining());
+                data.get(buffer, 0, count);
+                update(buffer, 0, count);
+            }
+        }
+    }
+
+    /**
+     * Returns the signature, which is the SHA-1 of all bytes fed. No more
+     * bytes may be fed afterwards.
+     *
+     * @return {@code non-null;} the signature; callers must not modify it
+     */
+    public byte[] getSignature() {
+        if (signature == null) {
+            signature = digest.digest();
+        }
+        return signature;
+    }
+
+    /**
+     * Returns the checksum, which is the Adler-32 of the signature followed
+     * by all bytes fed. No more bytes may be fed afterwards.
+     */
+    public int getChecksum() {
+        byte[] sig = getSignature();
+        Adler32 sigAdler = new Adler32();
+        sigAdler.update(sig, 0, sig.length);
+        return combineAdler32((int) sigAdler.getValue(),
+                (int) adler.getValue(), length);
+    }
+
+    private void checkNotFinished() {
+        if (signature != null) {
+            throw new IllegalStateException("already finished");
+        }
+    }
+
+    /**
+     * Computes the Adler-32 checksum of the concatenation of two blocks of
+     * data from the checksums of the blocks.
+     *
+     * @param prefix checksum of the first block
+     * @param suffix checksum of the second block
+     * @param suffixLength {@code >= 0;} length of the second block
+     * @return the checksum of both blocks
+     */
+    public static int combineAdler32(int prefix, int suffix,
+            long suffixLength) {
+        long prefixA = prefix & 0xffff;
+        long prefixB = (prefix >>> 16) & 0xffff;
+        long suffixA = suffix & 0xffff;
+        long suffixB = (suffix >>> 16) & 0xffff;
+        long rem = suffixLength % ADLER_MOD;
+
+        long a = (prefixA + suffixA + ADLER_MOD - 1) % ADLER_MOD;
+        long b = (prefixB + suffixB
+                + rem * ((prefixA + ADLER_MOD - 1) % ADLER_MOD)) % ADLER_MOD;
+
+        return (int) ((b << 16) | a);
+    }
+}
@@ -18,13 +18,18 @@ package com.android.dx.cf.direct;
 
 import com.android.dx.cf.iface.ParseObserver;
 import com.android.dx.cf.iface.Attribute;
+import com.android.dx.cf.iface.AttributeList;
 import com.android.dx.cf.iface.ParseException;
 import com.android.dx.cf.iface.StdAttributeList;
+import com.android.dx.rop.cst.CstString;
 import com.android.dx.util.ByteArray;
 import com.android.dx.util.Hex;
 
 /**
- * Parser for lists of attributes.
+ * Parser for lists of attributes. If the class file {@link
+ * DirectClassFile#setLazyAttributes asks for it} and there is no parse
+ * observer, this only reads the attribute headers, and leaves the parsing
+ * of each attribute to the first time it is asked for.
  */
 final /*package*/ class AttributeListParser {
     /** {@code non-null;} the class file to parse from */
@@ -39,8 +44,11 @@ final /*package*/ class AttributeListParser {
     /** {@code non-null;} attribute factory to use */
     private final AttributeFactory attributeFactory;
 
-    /** {@code non-null;} list of parsed attributes */
-    private final StdAttributeList list;
+    /** {@code >= 0;} number of attributes */
+    private final int size;
+
+    /** {@code null-ok;} list of parsed attributes, once parsed */
+    private AttributeList list;
 
     /** {@code >= -1;} the end offset of this list in the byte array of the
      * classfile, or {@code -1} if not yet parsed */
@@ -67,13 +75,11 @@ final /*package*/ class AttributeListParser {
             throw new NullPointerException("attributeFactory == null");
         }
 
-        int size = cf.getBytes().getUnsignedShort(offset);
-
         this.cf = cf;
         this.context = context;
         this.offset = offset;
         this.attributeFactory = attributeFactory;
-        this.list = new StdAttributeList(size);
+        this.size = cf.getBytes().getUnsignedShort(offset);
         this.endOffset = -1;
     }
 
@@ -100,9 +106,9 @@ final /*package*/ class AttributeListParser {
     /**
      * Gets the parsed list.
      *
-     * @return {@code non-null;} the list
+     * @return {@code non-null;} the list, which is immutable
      */
-    public StdAttributeList getList() {
+    public AttributeList getList() {
         parseIfNecessary();
         return list;
     }
@@ -112,7 +118,11 @@ final /*package*/ class AttributeListParser {
      */
     private void parseIfNecessary() {
         if (endOffset < 0) {
-            parse();
+            if (cf.getLazyAttributes() && (observer == null)) {
+                parseHeaders();
+            } else {
+                parse();
+            }
         }
     }
 
@@ -120,8 +130,9 @@ final /*package*/ class AttributeListParser {
      * Does the actual parsing.
      */
     private void parse() {
-        int sz = list.size();
+        int sz = size;
         int at = offset + 2; // Skip the count.
+        StdAttributeList list = new StdAttributeList(sz);
 
         ByteArray bytes = cf.getBytes();
 
@@ -159,6 +170,48 @@ final /*package*/ class AttributeListParser {
             }
         }
 
+        list.setImmutable();
+        this.list = list;
+        endOffset = at;
+    }
+
+    /**
+     * Reads the name and skips the data of each attribute, for a {@link
+     * LazyAttributeList}.
+     */
+    private void parseHeaders() {
+        int sz = size;
+        int at = offset + 2; // Skip the count.
+        String[] names = new String[sz];
+        int[] offsets = new int[sz];
+
+        ByteArray bytes = cf.getBytes();
+
+        for (int i = 0; i < sz; i++) {
+            try {
+                int nameIdx = bytes.getUnsignedShort(at);
+                int length = bytes.getInt(at + 2);
+
+                if ((length < 0) || (length > bytes.size() - at - 6)) {
+                    throw new ParseException("attribute length out of range");
+                }
+
+                names[i] = ((CstString) cf.getConstantPool().get(nameIdx))
+                        .getString();
+                offsets[i] = at;
+                at += 6 + length;
+            } catch (ParseException ex) {
+                ex.addContext("...while parsing attributes[" + i + "]");
+                throw ex;
+            } catch (RuntimeException ex) {
+                ParseException pe = new ParseException(ex);
+                pe.addContext("...while parsing attributes[" + i + "]");
+                throw pe;
+            }
+        }
+
+        list = new LazyAttributeList(cf, context, attributeFactory, names,
+                offsets, at - offset);
         endOffset = at;
     }
 }
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.cf.direct;
+
+import com.android.dx.cf.attrib.AttRuntimeVisibleAnnotations;
+import com.android.dx.cf.cst.ConstantTags;
+import com.android.dx.cf.iface.ParseException;
+import com.android.dx.rop.cst.CstString;
+import com.android.dx.util.ByteArray;
+import com.android.dx.util.Hex;
+
+/**
+ * Quick scanner of the parts of a class file that analysis passes look
+ * at: the class, its superclass and interfaces, the classes it refers to,
+ * and whether it has runtime visible annotations. Unlike {@link
+ * DirectClassFile} it doesn't build constants, types or members, and
+ * doesn't touch the global intern tables; it only finds where each
+ * constant starts, and decodes the class names it is asked about.
+ *
+ * <p>Instances are immutable, and so may be shared between threads.</p>
+ */
+public final class ClassFileScanner {
+    /** the expected value of the ClassFile.magic field */
+    private static final int CLASS_FILE_MAGIC = 0xcafebabe;
+
+    /** {@code non-null;} the class file bytes */
+    private final ByteArray bytes;
+
+    /** {@code non-null;} offset of each constant, or {@code 0} if none */
+    private final int[] offsets;
+
+    /** offset of the {@code access_flags} field */
+    private final int accessFlagsOffset;
+
+    /** offset of the {@code fields_count} field */
+    private final int fieldsOffset;
+
+    /**
+     * Visitor of the classes a class refers to.
+     */
+    public interface ClassVisitor {
+        /**
+         * Visits one class reference.
+         *
+         * @param name {@code non-null;} the class name, in internal form
+         */
+        void visitClass(String name);
+    }
+
+    /**
+     * Constructs an instance, finding the constants of the given class
+     * file.
+     *
+     * @param bytes {@code non-null;} the class file bytes
+     * @param filePath {@code non-null;} the file path, for error messages
+     */
+    public ClassFileScanner(ByteArray bytes, String filePath) {
+        if (bytes == null) {
+            throw new NullPointerException("bytes == null");
+        }
+
+        this.bytes = bytes;
+
+        try {
+            if (bytes.size() < 10 || bytes.getInt(0) != CLASS_FILE_MAGIC) {
+                throw new ParseException("bad class file magic");
+            }
+
+            offsets = new int[bytes.getUnsignedShort(8)];
+            accessFlagsOffset = findConstants();
+            int interfacesCount = bytes.getUnsignedShort(accessFlagsOffset + 6);
+            fieldsOffset = accessFlagsOffset + 8 + 2 * interfacesCount;
+        } catch (ParseException ex) {
+            ex.addContext("...while scanning " + filePath);
+            throw ex;
+        } catch (RuntimeException ex) {
+            ParseException pe = new ParseException(ex);
+            pe.addContext("...while scanning " + filePath);
+            throw pe;
+        }
+    }
+
+    /**
+     * Gets the name of the class, in internal form.
+     *
+     * @return {@code non-null;} the class name
+     */
+    public String getThisClass() {
+        return getClassName(bytes.getUnsignedShort(accessFlagsOffset + 2));
+    }
+
+    /**
+     * Gets the name of the superclass, in internal form.
+     *
+     * @return {@code null-ok;} the superclass name, or {@code null} if
+     * there is none
+     */
+    public String getSuperclass() {
+        int idx = bytes.getUnsignedShort(accessFlagsOffset + 4);
+        return (idx == 0) ? null : getClassName(idx);
+    }
+
+    /**
+     * Gets the number of interfaces the class implements directly.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int getInterfaceCount() {
+        return bytes.getUnsignedShort(accessFlagsOffset + 6);
+    }
+
+    /**
+     * Gets the name of one of the interfaces the class implements
+     * directly, in internal form.
+     *
+     * @param n {@code >= 0, < getInterfaceCount();} which interface
+     * @return {@code non-null;} the interface name
+     */
+    public String getInterface(int n) {
+        return getClassName(
+                bytes.getUnsignedShort(accessFlagsOffset + 8 + 2 * n));
+    }
+
+    /**
+     * Visits the classes the constant pool refers to, directly or as the
+     * element type of an array type: every class constant, the type of
+     * every field reference, and the return and parameter types of every
+     * (non-interface) method reference. Classes may be visited more than
+     * once.
+     *
+     * @param visitor {@code non-null;} the visitor
+     */
+    public void visitReferencedClasses(ClassVisitor visitor) {
+        // Descriptors are shared by many references; decode each once.
+        String[][] decoded = new String[offsets.length][];
+
+        for (int i = 1; i < offsets.length; i++) {
+            int at = offsets[i];
+            if (at == 0) {
+                continue;
+            }
+
+            String[] names;
+            switch (bytes.getUnsignedByte(at)) {
+                case ConstantTags.CONSTANT_Class: {
+                    names = getClassNames(bytes.getUnsignedShort(at + 1),
+                            true, decoded);
+                    break;
+                }
+                case ConstantTags.CONSTANT_Fieldref:
+                case ConstantTags.CONSTANT_Methodref: {
+                    int natAt = getOffset(bytes.getUnsignedShort(at + 3),
+                            ConstantTags.CONSTANT_NameAndType);
+                    names = getClassNames(bytes.getUnsignedShort(natAt + 3),
+                            false, decoded);
+                    break;
+                }
+                default: {
+                    continue;
+                }
+            }
+
+            for (String name : names) {
+                visitor.visitClass(name);
+            }
+        }
+    }
+
+    /**
+     * Gets whether the class, or any of its fields or methods, has a
+     * non-empty {@code RuntimeVisibleAnnotations} attribute.
+     *
+     * @return whether there are runtime visible annotations
+     */
+    public boolean hasRuntimeVisibleAnnotations() {
+        int at = fieldsOffset;
+
+        // fields, then methods
+        for (int list = 0; list < 2; list++) {
+            int count = bytes.getUnsignedShort(at);
+            at += 2;
+            for (int i = 0; i < count; i++) {
+                if (hasRuntimeVisibleAnnotations(at + 6)) {
+                    return true;
+                }
+                at = skipAttributes(at + 6);
+            }
+        }
+
+        return hasRuntimeVisibleAnnotations(at);
+    }
+
+    /**
+     * Finds the offsets of the constants.
+     *
+     * @return the offset just past the constant pool
+     */
+    private int findConstants() {
+        int at = 10;
+        int category;
+
+        for (int i = 1; i < offsets.length; i += category) {
+            offsets[i] = at;
+            int tag = bytes.getUnsignedByte(at);
+            category = 1;
+            switch (tag) {
+                case ConstantTags.CONSTANT_Integer:
+                case ConstantTags.CONSTANT_Float:
+                case ConstantTags.CONSTANT_Fieldref:
+                case ConstantTags.CONSTANT_Methodref:
+                case ConstantTags.CONSTANT_InterfaceMethodref:
+                case ConstantTags.CONSTANT_NameAndType:
+                case ConstantTags.CONSTANT_InvokeDynamic: {
+                    at += 5;
+                    break;
+                }
+                case ConstantTags.CONSTANT_Long:
+                case ConstantTags.CONSTANT_Double: {
+                    category = 2;
+                    at += 9;
+                    break;
+                }
+                case ConstantTags.CONSTANT_Class:
+                case ConstantTags.CONSTANT_String:
+                case ConstantTags.CONSTANT_MethodType: {
+                    at += 3;
+                    break;
+                }
+                case ConstantTags.CONSTANT_MethodHandle: {
+                    at += 4;
+                    break;
+                }
+                case ConstantTags.CONSTANT_Utf8: {
+                    at += bytes.getUnsignedShort(at + 1) + 3;
+                    break;
+                }
+                default: {
+                    throw new ParseException("unknown tag byte: " +
+                            Hex.u1(tag) + " at offset " + Hex.u4(at));
+                }
+            }
+        }
+
+        return at;
+    }
+
+    /**
+     * Gets the offset of the given constant, checking its tag.
+     */
+    private int getOffset(int idx, int tag) {
+        int at = (idx < offsets.length) ? offsets[idx] : 0;
+
+        if (at == 0 || bytes.getUnsignedByte(at) != tag) {
+            throw new ParseException("bad constant pool index " + Hex.u2(idx));
+        }
+
+        return at;
+    }
+
+    /**
+     * Decodes the given {@code CONSTANT_Utf8}.
+     */
+    private String getUtf8(int idx) {
+        int at = getOffset(idx, ConstantTags.CONSTANT_Utf8);
+        int length = bytes.getUnsignedShort(at + 1);
+        return decode(at + 3, at + 3 + length);
+    }
+
+    /**
+     * Gets whether the given {@code CONSTANT_Utf8} is equal to the given
+     * ASCII string, without decoding it.
+     */
+    private boolean utf8Equals(int idx, String ascii) {
+        int at = getOffset(idx, ConstantTags.CONSTANT_Utf8);
+        int length = bytes.getUnsignedShort(at + 1);
+
+        if (length != ascii.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (bytes.getUnsignedByte(at + 3 + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gets the name of the given {@code CONSTANT_Class}.
+     */
+    private String getClassName(int idx) {
+        int at = getOffset(idx, ConstantTags.CONSTANT_Class);
+        return getUtf8(bytes.getUnsignedShort(at + 1));
+    }
+
+    /**
+     * Gets the classes named by the given {@code CONSTANT_Utf8}, which
+     * holds either a class constant's name or a type or method descriptor,
+     * decoding it unless it is in {@code decoded} already.
+     *
+     * @param idx index of the constant
+     * @param isClassName whether the constant is the name of a class
+     * constant, which is a descriptor only for array classes
+     * @param decoded {@code non-null;} the class names found so far, by
+     * index
+     * @return {@code non-null;} the class names
+     */
+    private String[] getClassNames(int idx, boolean isClassName,
+            String[][] decoded) {
+        String[] result = decoded[idx];
+        if (result != null) {
+            return result;
+        }
+
+        int at = getOffset(idx, ConstantTags.CONSTANT_Utf8) + 3;
+        int end = at + bytes.getUnsignedShort(at - 2);
+
+        if (isClassName && at < end && bytes.getUnsignedByte(at) != '[') {
+            result = new String[] { decode(at, end) };
+        } else {
+            /*
+             * Only the ASCII characters of the descriptor syntax are
+             * looked at, and those never occur within the encoding of
+             * another character, so bytes can be scanned as characters.
+             */
+            int count = 0;
+            for (int i = at; i < end; i++) {
+                if (bytes.getUnsignedByte(i) == 'L') {
+                    count++;
+                    i = indexOfSemicolon(i, end);
+                }
+            }
+
+            result = new String[count];
+            count = 0;
+            for (int i = at; i < end; i++) {
+                if (bytes.getUnsignedByte(i) == 'L') {
+                    int semicolon = indexOfSemicolon(i, end);
+                    result[count++] = decode(i + 1, semicolon);
+                    i = semicolon;
+                }
+            }
+        }
+
+        decoded[idx] = result;
+        return result;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes in the given range, directly if they are all
+     * ASCII.
+     */
+    private String decode(int start, int end) {
+        char[] chars = new char[end - start];
+
+        for (int i = start; i < end; i++) {
+            int b = bytes.getUnsignedByte(i);
+            if (b == 0 || b >= 0x80) {
+                return CstString.utf8BytesToString(bytes.slice(start, end));
+            }
+            chars[i - start] = (char) b;
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Finds the semicolon ending the class type that starts at the given
+     * offset within a descriptor.
+     */
+    private int indexOfSemicolon(int at, int end) {
+        for (int i = at + 1; i < end; i++) {
+            if (bytes.getUnsignedByte(i) == ';') {
+                return i;
+            }
+        }
+
+        throw new ParseException("unterminated class type in descriptor");
+    }
+
+    /**
+     * Gets whether the first {@code RuntimeVisibleAnnotations} attribute
+     * of the attribute list at the given offset holds any annotation.
+     */
+    private boolean hasRuntimeVisibleAnnotations(int at) {
+        int count = bytes.getUnsignedShort(at);
+        at += 2;
+
+        for (int i = 0; i < count; i++) {
+            int nameIdx = bytes.getUnsignedShort(at);
+            if (utf8Equals(nameIdx, AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME)) {
+                return bytes.getUnsignedShort(at + 6) != 0;
+            }
+            at += 6 + bytes.getInt(at + 2);
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the offset just past the attribute list at the given offset.
+     */
+    private int skipAttributes(int at) {
+        int count = bytes.getUnsignedShort(at);
+        at += 2;
+
+        for (int i = 0; i < count; i++) {
+            at += 6 + bytes.getInt(at + 2);
+        }
+
+        return at;
+    }
+}
@@ -17,15 +17,21 @@
 package com.android.dx.cf.direct;
 
 import com.android.dex.util.FileUtils;
+import com.android.dx.util.PhaseTimer;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
@@ -36,6 +42,9 @@ import java.util.zip.ZipFile;
  */
 public class ClassPathOpener {
 
+    /** {@code non-null;} time spent reading files and archive entries */
+    private static final PhaseTimer READ_TIMER = new PhaseTimer("read");
+
     /** {@code non-null;} pathname to start with */
     private final String pathname;
     /** {@code non-null;} callback interface */
@@ -47,6 +56,13 @@ public class ClassPathOpener {
      */
     private final boolean sort;
     private FileNameFilter filter;
+    /**
+     * {@code null-ok;} pool to inflate archive entries on, or {@code null}
+     * to read them on the calling thread
+     */
+    private ExecutorService readPool;
+    /** {@code >= 1;} max number of archive entries being read ahead */
+    private int readAhead = 1;
 
     /**
      * Callback interface for {@code ClassOpener}.
@@ -132,6 +148,25 @@ public class ClassPathOpener {
         this.filter = filter;
     }
 
+    /**
+     * Makes archive entries be read and inflated on the given pool, up to
+     * {@code readAhead} entries ahead of the one being passed to the
+     * consumer. Entries still reach the consumer one at a time, on the
+     * calling thread and in the same order as without a pool.
+     *
+     * @param pool {@code null-ok;} pool to read entries on, or {@code null}
+     * to read them on the calling thread
+     * @param readAhead {@code >= 1;} max number of entries read ahead
+     */
+    public void setReadPool(ExecutorService pool, int readAhead) {
+        if (readAhead < 1) {
+            throw new IllegalArgumentException("readAhead < 1");
+        }
+
+        this.readPool = pool;
+        this.readAhead = readAhead;
+    }
+
     /**
      * Processes a path element.
      *
@@ -166,7 +201,9 @@ public class ClassPathOpener {
                 return processArchive(file);
             }
             if (filter.accept(path)) {
+                long start = READ_TIMER.start();
                 byte[] bytes = FileUtils.readFile(file);
+                READ_TIMER.end(start);
                 return consumer.processFileBytes(path, file.lastModified(), bytes);
             } else {
                 return false;
@@ -256,36 +293,188 @@ public class ClassPathOpener {
 
         consumer.onProcessArchiveStart(file);
 
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(40000);
+        try {
+            if (readPool == null) {
+                return processEntries(zip, entriesList);
+            } else {
+                return processEntriesInPool(zip, entriesList);
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Reads the archive entries on the calling thread and passes them to
+     * the consumer.
+     *
+     * @param zip {@code non-null;} the archive
+     * @param entries {@code non-null;} its entries, in processing order
+     * @return whether any processing actually happened
+     * @throws IOException on i/o problem
+     */
+    private boolean processEntries(ZipFile zip,
+            ArrayList<? extends ZipEntry> entries) throws IOException {
         byte[] buf = new byte[20000];
         boolean any = false;
 
-        for (ZipEntry one : entriesList) {
-            final boolean isDirectory = one.isDirectory();
-
+        for (ZipEntry one : entries) {
             String path = one.getName();
             if (filter.accept(path)) {
-                final byte[] bytes;
-                if (!isDirectory) {
-                    InputStream in = zip.getInputStream(one);
-
-                    baos.reset();
-                    int read;
-                    while ((read = in.read(buf)) != -1) {
-                        baos.write(buf, 0, read);
+                byte[] bytes = readEntry(zip, one, buf);
+                any |= consumer.processFileBytes(path, one.getTime(), bytes);
+            }
+        }
+
+        return any;
+    }
+
+    /**
+     * Reads the archive entries on {@link #readPool}, keeping up to
+     * {@link #readAhead} of them in flight, and passes them to the
+     * consumer in order as they complete.
+     *
+     * @param zip {@code non-null;} the archive
+     * @param entries {@code non-null;} its entries, in processing order
+     * @return whether any processing actually happened
+     * @throws IOException on i/o problem
+     */
+    private boolean processEntriesInPool(final ZipFile zip,
+            ArrayList<? extends ZipEntry> entries) throws IOException {
+        ArrayDeque<ZipEntry> pendingEntries = new ArrayDeque<ZipEntry>();
+        ArrayDeque<Future<byte[]>> pendingBytes =
+            new ArrayDeque<Future<byte[]>>();
+        boolean any = false;
+
+        try {
+            int at = 0;
+            int size = entries.size();
+
+            while (at < size || !pendingEntries.isEmpty()) {
+                while (at < size && pendingEntries.size() < readAhead) {
+                    final ZipEntry one = entries.get(at++);
+                    if (filter.accept(one.getName())) {
+                        pendingEntries.add(one);
+                        pendingBytes.add(readPool.submit(
+                                new Callable<byte[]>() {
+                            @Override
+                            public byte[] call() throws IOException {
+                                return readEntry(zip, one, null);
+                            }
+                        }));
                     }
+                }
 
-                    in.close();
-                    bytes = baos.toByteArray();
-                } else {
-                    bytes = new byte[0];
+                if (pendingEntries.isEmpty()) {
+                    break;
                 }
 
-                any |= consumer.processFileBytes(path, one.getTime(), bytes);
+                ZipEntry one = pendingEntries.remove();
+                byte[] bytes = getBytes(pendingBytes.remove());
+                any |= consumer.processFileBytes(one.getName(), one.getTime(),
+                        bytes);
+            }
+        } finally {
+            // Only non-empty after a failure.
+            for (Future<byte[]> f : pendingBytes) {
+                f.cancel(true);
             }
         }
 
-        zip.close();
         return any;
     }
+
+    /**
+     * Waits for an entry read on {@link #readPool}.
+     *
+     * @param f {@code non-null;} the pending read
+     * @return {@code non-null;} the contents of the entry
+     * @throws IOException if the read failed
+     */
+    private static byte[] getBytes(Future<byte[]> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading archive", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Reads and inflates one archive entry. When the archive records the
+     * size of the entry the result is allocated up front and filled in
+     * place; otherwise it is accumulated through a stream.
+     *
+     * @param zip {@code non-null;} the archive
+     * @param entry {@code non-null;} the entry to read
+     * @param buf {@code null-ok;} scratch buffer to reuse, if any
+     * @return {@code non-null;} the contents of the entry
+     * @throws IOException on i/o problem
+     */
+    private static byte[] readEntry(ZipFile zip, ZipEntry entry, byte[] buf)
+            throws IOException {
+        if (entry.isDirectory()) {
+            return new byte[0];
+        }
+
+        long start = READ_TIMER.start();
+        InputStream in = zip.getInputStream(entry);
+
+        try {
+            long size = entry.getSize();
+            byte[] bytes = null;
+            int at = 0;
+
+            if (size >= 0 && size < Integer.MAX_VALUE) {
+                bytes = new byte[(int) size];
+                int read;
+                while (at < bytes.length
+                        && (read = in.read(bytes, at, bytes.length - at)) != -1) {
+                    at += read;
+                }
+
+                if (at == bytes.length) {
+                    int next = in.read();
+                    if (next == -1) {
+                        return bytes;
+                    }
+                    // The recorded size was wrong; keep reading below.
+                    bytes = Arrays.copyOf(bytes, at + 1);
+                    bytes[at++] = (byte) next;
+                } else {
+                    return Arrays.copyOf(bytes, at);
+                }
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                    Math.max(40000, at));
+            if (bytes != null) {
+                baos.write(bytes, 0, at);
+            }
+
+            if (buf == null) {
+                buf = new byte[20000];
+            }
+
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                baos.write(buf, 0, read);
+            }
+
+            return baos.toByteArray();
+        } finally {
+            in.close();
+            READ_TIMER.end(start);
+        }
+    }
 }
@@ -26,7 +26,6 @@ import com.android.dx.cf.iface.AttributeList;
 import com.android.dx.cf.iface.ClassFile;
 import com.android.dx.cf.iface.FieldList;
 import com.android.dx.cf.iface.MethodList;
-import com.android.dx.cf.iface.StdAttributeList;
 import com.android.dx.rop.code.AccessFlags;
 import com.android.dx.rop.cst.ConstantPool;
 import com.android.dx.rop.cst.CstType;
@@ -140,7 +139,7 @@ public class DirectClassFile implements ClassFile {
      * ever {@code null} before the file is successfully
      * parsed
      */
-    private StdAttributeList attributes;
+    private AttributeList attributes;
 
     /** {@code null-ok;} attribute factory, if any */
     private AttributeFactory attributeFactory;
@@ -148,6 +147,9 @@ public class DirectClassFile implements ClassFile {
     /** {@code null-ok;} parse observer, if any */
     private ParseObserver observer;
 
+    /** whether attributes are only parsed when first asked for */
+    private boolean lazyAttributes;
+
     /**
      * Returns the string form of an object or {@code "(none)"}
      * (rather than {@code "null"}) for {@code null}.
@@ -228,6 +230,30 @@ public class DirectClassFile implements ClassFile {
         this.attributeFactory = attributeFactory;
     }
 
+    /**
+     * Sets whether to parse each attribute only when it is first asked
+     * for, rather than along with the rest of the file. Attributes that
+     * nobody asks for, such as debug information that won't be kept, then
+     * cost no more than skipping them, but a malformed attribute is only
+     * reported when it is asked for. Attributes are never parsed lazily
+     * when there is a parse observer. This must be called before the file
+     * is parsed.
+     *
+     * @param lazyAttributes whether to parse attributes lazily
+     */
+    public void setLazyAttributes(boolean lazyAttributes) {
+        this.lazyAttributes = lazyAttributes;
+    }
+
+    /**
+     * Gets whether attributes are parsed lazily.
+     *
+     * @return whether attributes are only parsed when first asked for
+     */
+    public boolean getLazyAttributes() {
+        return lazyAttributes;
+    }
+
     /**
      * Gets the path where this class file is located.
      *
@@ -547,7 +573,6 @@ public class DirectClassFile implements ClassFile {
                                     attributeFactory);
         alParser.setObserver(observer);
         attributes = alParser.getList();
-        attributes.setImmutable();
         at = alParser.getEndOffset();
 
         if (at != bytes.size()) {
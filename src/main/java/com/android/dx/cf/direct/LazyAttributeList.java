@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.cf.direct;
+
+import com.android.dx.cf.iface.Attribute;
+import com.android.dx.cf.iface.AttributeList;
+import com.android.dx.cf.iface.ParseException;
+
+/**
+ * Immutable list of attributes which only knows the name and position of
+ * each attribute up front, and has it parsed by an {@link AttributeFactory}
+ * the first time it is asked for. Like the {@link DirectClassFile} it comes
+ * from, instances are not thread-safe.
+ */
+final /*package*/ class LazyAttributeList implements AttributeList {
+    /** {@code non-null;} the class file to parse from */
+    private final DirectClassFile cf;
+
+    /** attribute parsing context */
+    private final int context;
+
+    /** {@code non-null;} attribute factory to use */
+    private final AttributeFactory attributeFactory;
+
+    /** {@code non-null;} name of each attribute */
+    private final String[] names;
+
+    /** {@code non-null;} offset of each attribute in the class file */
+    private final int[] offsets;
+
+    /**
+     * {@code non-null;} each attribute, or {@code null} if it has not yet
+     * been asked for
+     */
+    private final Attribute[] attributes;
+
+    /** {@code >= 2;} total length of the list in the class file */
+    private final int byteLength;
+
+    /**
+     * Constructs an instance.
+     *
+     * @param cf {@code non-null;} class file to parse from
+     * @param context attribute parsing context (see {@link AttributeFactory})
+     * @param attributeFactory {@code non-null;} attribute factory to use
+     * @param names {@code non-null;} name of each attribute
+     * @param offsets {@code non-null;} offset of each attribute, at its
+     * header
+     * @param byteLength {@code >= 2;} total length of the list in the class
+     * file
+     */
+    public LazyAttributeList(DirectClassFile cf, int context,
+            AttributeFactory attributeFactory, String[] names, int[] offsets,
+            int byteLength) {
+        this.cf = cf;
+        this.context = context;
+        this.attributeFactory = attributeFactory;
+        this.names = names;
+        this.offsets = offsets;
+        this.attributes = new Attribute[names.length];
+        this.byteLength = byteLength;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isMutable() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public int size() {
+        return names.length;
+    }
+
+    /** {@inheritDoc} */
+    public Attribute get(int n) {
+        Attribute result = attributes[n];
+
+        if (result == null) {
+            try {
+                result = attributeFactory.parse(cf, context, offsets[n], null);
+            } catch (ParseException ex) {
+                ex.addContext("...while parsing attributes[" + n + "]");
+                throw ex;
+            } catch (RuntimeException ex) {
+                ParseException pe = new ParseException(ex);
+                pe.addContext("...while parsing attributes[" + n + "]");
+                throw pe;
+            }
+            attributes[n] = result;
+        }
+
+        return result;
+    }
+
+    /** {@inheritDoc} */
+    public int byteLength() {
+        return byteLength;
+    }
+
+    /** {@inheritDoc} */
+    public Attribute findFirst(String name) {
+        return find(name, 0);
+    }
+
+    /** {@inheritDoc} */
+    public Attribute findNext(Attribute attrib) {
+        for (int i = 0; i < attributes.length; i++) {
+            if (attributes[i] == attrib) {
+                return find(names[i], i + 1);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the first attribute with the given name, at or after the
+     * given index. Only that attribute gets parsed.
+     *
+     * @param name {@code non-null;} attribute name
+     * @param start {@code >= 0;} index to start looking at
+     * @return {@code null-ok;} the attribute, or {@code null} if there is
+     * none
+     */
+    private Attribute find(String name, int start) {
+        for (int i = start; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return get(i);
+            }
+        }
+
+        return null;
+    }
+}
@@ -20,7 +20,6 @@ import com.android.dx.cf.iface.ParseException;
 import com.android.dx.cf.iface.ParseObserver;
 import com.android.dx.cf.iface.AttributeList;
 import com.android.dx.cf.iface.Member;
-import com.android.dx.cf.iface.StdAttributeList;
 import com.android.dx.rop.cst.ConstantPool;
 import com.android.dx.rop.cst.CstNat;
 import com.android.dx.rop.cst.CstString;
@@ -211,8 +210,7 @@ abstract /*package*/ class MemberListParser {
                                             attributeFactory);
                 parser.setObserver(observer);
                 at = parser.getEndOffset();
-                StdAttributeList attributes = parser.getList();
-                attributes.setImmutable();
+                AttributeList attributes = parser.getList();
                 CstNat nat = new CstNat(name, desc);
                 Member member = set(i, accessFlags, nat, attributes);
 
@@ -33,7 +33,7 @@ import com.android.dx.cf.code.BytecodeArray;
 import com.android.dx.cf.code.LocalVariableList;
 import com.android.dx.cf.iface.ParseException;
 import com.android.dx.cf.iface.ParseObserver;
-import com.android.dx.cf.iface.StdAttributeList;
+import com.android.dx.cf.iface.AttributeList;
 import com.android.dx.rop.annotation.Annotations;
 import com.android.dx.rop.annotation.AnnotationsList;
 import com.android.dx.rop.cst.Constant;
@@ -298,8 +298,7 @@ public class StdAttributeFactory
             new AttributeListParser(cf, CTX_CODE, offset, this);
         parser.setObserver(observer);
 
-        StdAttributeList attributes = parser.getList();
-        attributes.setImmutable();
+        AttributeList attributes = parser.getList();
 
         int attributeByteCount = parser.getEndOffset() - offset;
         if (attributeByteCount != length) {
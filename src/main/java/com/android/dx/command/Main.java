@@ -29,13 +29,15 @@ public class Main {
         "[--no-locals]\n" +
         "  [--no-optimize] [--statistics] [--[no-]optimize-list=<file>] " +
         "[--no-strict]\n" +
+        "  [--optimize-max-insns=<n>] [--optimize-max-registers=<n>]\n" +
+        "  [--optimize-time-budget=<ms>]\n" +
         "  [--keep-classes] [--output=<file>] [--dump-to=<file>] " +
         "[--dump-width=<n>]\n" +
         "  [--dump-method=<name>[*]] [--verbose-dump] [--no-files] " +
         "[--core-library]\n" +
         "  [--num-threads=<n>] [--incremental] [--force-jumbo] [--no-warning]\n" +
         "  [--multi-dex [--main-dex-list=<file> [--minimal-main-dex]]\n" +
-        "  [--input-list=<file>]\n" +
+        "  [--input-list=<file>] [--cache-dir=<dir>] [--metrics=<file>]\n" +
         "  [<file>.class | <file>.{zip,jar,apk} | <directory>] ...\n" +
         "    Convert a set of classfiles into a dex file, optionally " +
         "embedded in a\n" +
@@ -55,6 +57,33 @@ public class Main {
         "    the main dex.\n" +
         "    --input-list: <file> is a list of inputs.\n" +
         "    Each line in <file> must end with one of: .class .jar .zip .apk or be a directory.\n" +
+        "    --cache-dir: <dir> caches translated classes, keyed by their " +
+        "contents and the\n" +
+        "    options, so that unchanged classes aren't translated again. " +
+        "Not supported\n" +
+        "    with --multi-dex, --dump-to or --dump-method.\n" +
+        "    --optimize-max-insns, --optimize-max-registers: methods with " +
+        "more rop\n" +
+        "    instructions or registers than <n> are translated without " +
+        "optimization,\n" +
+        "    which is much faster for huge generated methods; each one is " +
+        "reported.\n" +
+        "    --optimize-time-budget: methods whose optimization takes longer " +
+        "than <ms>\n" +
+        "    are translated again without it, and reported.\n" +
+        "    --metrics: <file> gets a JSON report of the time spent in each " +
+        "phase, summed\n" +
+        "    over all threads, and of the intern table hit rates.\n" +
+        "  dx --daemon [--port=<n>]\n" +
+        "    Serve repeated --dex requests in one process. Each request is " +
+        "the list of\n" +
+        "    --dex arguments, one per line, ended by an empty line; the " +
+        "response is\n" +
+        "    \"<exit code> <output length>\" and the console output. " +
+        "Requests come from\n" +
+        "    stdin, or from a loopback socket with --port (0 picks a " +
+        "free port).\n" +
+        "    The request --shutdown stops the daemon.\n" +
         "  dx --annotool --annotation=<class> [--element=<element types>]\n" +
         "  [--print=<print types>]\n" +
         "  dx --dump [--debug] [--strict] [--bytes] [--optimize]\n" +
@@ -105,6 +134,9 @@ public class Main {
                 if (arg.equals("--dex")) {
                     com.android.dx.command.dexer.Main.main(without(args, i));
                     break;
+                } else if (arg.equals("--daemon")) {
+                    com.android.dx.command.dexer.Daemon.main(without(args, i));
+                    break;
                 } else if (arg.equals("--dump")) {
                     com.android.dx.command.dump.Main.main(without(args, i));
                     break;
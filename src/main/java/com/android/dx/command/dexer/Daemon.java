@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.dexer;
+
+import com.android.dx.command.DxConsole;
+import com.android.dx.command.UsageException;
+import com.android.dx.rop.code.RegisterSpec;
+import com.android.dx.util.InternTable;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Long-lived dexer process, so that repeated conversions share one warm
+ * JVM: the JIT-compiled code and the intern tables of the constant and
+ * type classes survive from one request to the next, while everything
+ * else is reset by {@link Main#run}. None of the shared tables may grow
+ * without bound: the weak ones only hold what is still in use, and the
+ * daemon gives all the others a limit.
+ *
+ * <p>Inputs are parsed again by every request. To reuse the translation
+ * of classes that haven't changed, give the requests a
+ * {@code --cache-dir}; keeping translations in the heap of the daemon
+ * instead would make it grow with every project it serves.</p>
+ *
+ * <p>A request is the list of arguments that would be given to
+ * {@code dx --dex}, one per line, terminated by an empty line. Relative
+ * paths are resolved against the working directory of the daemon. The
+ * response is a line holding the exit code and the byte length of the
+ * console output of the run, separated by a space, followed by that
+ * output in UTF-8. A request consisting of the single line
+ * {@code --shutdown} stops the daemon.</p>
+ *
+ * <p>Requests are read from standard input, or from connections to a
+ * loopback socket if a port is given. Either way they are run one at a
+ * time, since {@link Main} keeps its per-run state in static fields.</p>
+ */
+public final class Daemon {
+    /** request line that stops the daemon */
+    private static final String SHUTDOWN = "--shutdown";
+
+    /**
+     * upper bound on the size of the register spec intern table, which
+     * would otherwise only ever grow in a long-lived process
+     */
+    private static final int REGISTER_SPEC_INTERN_LIMIT = 200000;
+
+    /**
+     * upper bound on the size of each intern table that doesn't drop
+     * unused values by itself
+     */
+    private static final int INTERN_TABLE_LIMIT = 100000;
+
+    /** {@code non-null;} encoding of requests and responses */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * This class is uninstantiable.
+     */
+    private Daemon() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Serves requests until shut down.
+     *
+     * @param args {@code non-null;} either empty, or {@code --port=<n>} to
+     * listen on a loopback port; port {@code 0} picks a free one
+     */
+    public static void main(String[] args) throws IOException {
+        int port = -1;
+
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring(7));
+            } else {
+                System.err.println("unknown option: " + arg);
+                throw new UsageException();
+            }
+        }
+
+        RegisterSpec.setInternTableLimit(REGISTER_SPEC_INTERN_LIMIT);
+        InternTable.setDefaultLimit(INTERN_TABLE_LIMIT);
+
+        if (port < 0) {
+            serve(System.in, System.out);
+            return;
+        }
+
+        ServerSocket server =
+            new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        try {
+            System.out.println("listening on port " + server.getLocalPort());
+            System.out.flush();
+
+            boolean running = true;
+            while (running) {
+                Socket socket = server.accept();
+                try {
+                    running = serve(socket.getInputStream(),
+                            socket.getOutputStream());
+                } catch (IOException ex) {
+                    // The client went away; keep serving the others.
+                    System.err.println("dx daemon: " + ex);
+                } finally {
+                    socket.close();
+                }
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Serves the requests of one client until end of input.
+     *
+     * @param in {@code non-null;} where requests are read from
+     * @param out {@code non-null;} where responses are written to
+     * @return {@code false} if a shutdown was requested, {@code true}
+     * otherwise
+     */
+    private static boolean serve(InputStream in, OutputStream out)
+            throws IOException {
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(in, UTF_8));
+
+        while (true) {
+            List<String> request = readRequest(reader);
+
+            if (request == null) {
+                return true;
+            }
+
+            if (request.size() == 1 && request.get(0).equals(SHUTDOWN)) {
+                return false;
+            }
+
+            if (!request.isEmpty()) {
+                runRequest(request.toArray(new String[request.size()]), out);
+            }
+        }
+    }
+
+    /**
+     * Reads one request.
+     *
+     * @param reader {@code non-null;} where to read from
+     * @return {@code null-ok;} the arguments of the request, or
+     * {@code null} at end of input
+     */
+    private static List<String> readRequest(BufferedReader reader)
+            throws IOException {
+        List<String> request = new ArrayList<String>();
+
+        while (true) {
+            String line = reader.readLine();
+
+            if (line == null) {
+                return request.isEmpty() ? null : request;
+            }
+
+            if (line.isEmpty()) {
+                return request;
+            }
+
+            request.add(line);
+        }
+    }
+
+    /**
+     * Runs one request and writes its response. All console output of the
+     * run, including anything written directly to {@link System#out} and
+     * {@link System#err}, is captured into the response.
+     *
+     * @param args {@code non-null;} the arguments of the request
+     * @param out {@code non-null;} where to write the response
+     */
+    private static void runRequest(String[] args, OutputStream out)
+            throws IOException {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        PrintStream console = new PrintStream(captured, true, "UTF-8");
+        PrintStream savedOut = System.out;
+        PrintStream savedErr = System.err;
+        PrintStream savedDxOut = DxConsole.out;
+        PrintStream savedDxErr = DxConsole.err;
+        int result;
+        Error fatal = null;
+
+        System.setOut(console);
+        System.setErr(console);
+        DxConsole.out = console;
+        DxConsole.err = console;
+
+        try {
+            Main.Arguments arguments = new Main.Arguments();
+            arguments.parse(args);
+            result = Main.run(arguments);
+        } catch (UsageException ex) {
+            console.println("usage error; see dx --help");
+            result = 1;
+        } catch (Exception ex) {
+            console.println("\nUNEXPECTED TOP-LEVEL EXCEPTION:");
+            ex.printStackTrace(console);
+            result = 2;
+        } catch (Error ex) {
+            console.println("\nUNEXPECTED TOP-LEVEL ERROR:");
+            ex.printStackTrace(console);
+            result = 3;
+            fatal = ex;
+        } finally {
+            System.setOut(savedOut);
+            System.setErr(savedErr);
+            DxConsole.out = savedDxOut;
+            DxConsole.err = savedDxErr;
+        }
+
+        console.flush();
+        byte[] output = captured.toByteArray();
+        out.write((result + " " + output.length + "\n").getBytes(UTF_8));
+        out.write(output);
+        out.flush();
+
+        if (fatal != null) {
+            // The state of the process can't be trusted any more.
+            throw fatal;
+        }
+    }
+}
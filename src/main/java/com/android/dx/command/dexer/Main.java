@@ -40,10 +40,14 @@ import com.android.dx.cf.direct.ClassPathOpener.FileNameFilter;
 import com.android.dx.cf.direct.StdAttributeFactory;
 import com.android.dx.dex.DexOptions;
 import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.dex.cf.OptimizerOptions;
 import com.android.dx.dex.file.DexFile;
 import com.android.dx.merge.CollisionPolicy;
 import com.android.dx.merge.DexMerger;
 import com.android.dx.rop.annotation.Annotations;
+import com.android.dx.util.PhaseTimer;
+import com.android.dx.util.ReorderBuffer;
+import com.android.dx.util.TimeBudget;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -66,7 +70,6 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -94,6 +97,12 @@ public class Main {
      */
     private static final String DEX_PREFIX = "classes";
 
+    /**
+     * Suffix of the temporary files that multi dex output is streamed to,
+     * until the run succeeds.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
     /**
      * {@code non-null;} the lengthy message that tries to discourage
      * people from defining core classes in applications
@@ -177,19 +186,51 @@ public class Main {
      */
     private static TreeMap<String, byte[]> outputResources;
 
+    /** {@code non-null;} time spent parsing class files */
+    private static final PhaseTimer PARSE_TIMER = new PhaseTimer("parse");
+
+    /** {@code non-null;} time spent adding translated classes to the output */
+    private static final PhaseTimer ADD_TO_DEX_TIMER =
+        new PhaseTimer("addClassToDex");
+
+    /** {@code non-null;} time spent converting output dex files to bytes */
+    private static final PhaseTimer TO_DEX_TIMER = new PhaseTimer("toDex");
+
+    /** {@code non-null;} time spent writing output jars */
+    private static final PhaseTimer JAR_WRITE_TIMER = new PhaseTimer("jarWrite");
+
     /** Library .dex files to merge into the output .dex. */
     private static final List<byte[]> libraryDexBuffers = new ArrayList<byte[]>();
 
+    /**
+     * {@code null-ok;} cache of translated classes, or {@code null} if
+     * classes are always translated
+     */
+    private static TranslationCache translationCache;
+
+    /**
+     * Single class dex files, from {@link #translationCache} or translated
+     * to be stored there, in input file order. They are merged into the
+     * output dex file.
+     */
+    private static final List<byte[]> classDexBuffers = new ArrayList<byte[]>();
+
     /** Thread pool object used for multi-thread class translation. */
     private static ExecutorService classTranslatorPool;
 
-    /** Single thread executor, for collecting results of parallel translation,
+    /** Thread pool object used for reading and inflating archive entries
+     * ahead of their translation, or {@code null} with a single thread. */
+    private static ExecutorService archiveReaderPool;
+
+    /** Reorder buffer, for collecting results of parallel translation,
      * and adding classes to dex file in original input file order. */
-    private static ExecutorService classDefItemConsumer;
+    private static TranslatedClassBuffer translatedClasses;
 
-    /** Futures for {@code classDefItemConsumer} tasks. */
-    private static List<Future<Boolean>> addToDexFutures =
-            new ArrayList<Future<Boolean>>();
+    /** Exceptions from translating classes and adding them to the dex
+     * file, in input file order. Only touched by {@code translatedClasses}
+     * until translation is over. */
+    private static List<Throwable> translationFailures =
+            new ArrayList<Throwable>();
 
     /** Thread pool object used for multi-thread dex conversion (to byte array).
      * Used in combination with multi-dex support, to allow outputing
@@ -254,30 +295,80 @@ public class Main {
      */
     public static int run(Arguments arguments) throws IOException {
 
-        // Reset the error count to start fresh.
-        errors.set(0);
-        // empty the list, so that  tools that load dx and keep it around
-        // for multiple runs don't reuse older buffers.
-        libraryDexBuffers.clear();
+        // Reset the error count and the rest of the per-run state, so
+        // that tools that load dx and keep it around for multiple runs
+        // don't reuse older buffers, futures or dex files.
+        resetState();
 
         args = arguments;
         args.makeOptionsObjects();
 
+        long start = System.nanoTime();
+        PhaseTimer.setEnabled(args.metricsFile != null);
+
+        if (args.cacheDir != null) {
+            translationCache = new TranslationCache(new File(args.cacheDir),
+                    args.cfOptions, args.dexOptions);
+        }
+
         OutputStream humanOutRaw = null;
         if (args.humanOutName != null) {
             humanOutRaw = openOutput(args.humanOutName);
             humanOutWriter = new OutputStreamWriter(humanOutRaw);
         }
 
+        int result;
         try {
             if (args.multiDex) {
-                return runMultiDex();
+                result = runMultiDex();
             } else {
-                return runMonoDex();
+                result = runMonoDex();
             }
         } finally {
             closeOutput(humanOutRaw);
         }
+
+        if (args.metricsFile != null) {
+            OutputStream metricsOut = openOutput(args.metricsFile);
+            try {
+                MetricsReport.write(metricsOut, System.nanoTime() - start,
+                        args.numThreads, args.statistics);
+            } finally {
+                closeOutput(metricsOut);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Resets all the state that is local to one {@link #run}. State that
+     * is shared between runs, like the intern tables of the constant and
+     * type classes, is left alone so that it stays warm.
+     */
+    private static void resetState() {
+        errors.set(0);
+        libraryDexBuffers.clear();
+        translationCache = null;
+        classDexBuffers.clear();
+        outputDex = null;
+        outputResources = null;
+        classTranslatorPool = null;
+        archiveReaderPool = null;
+        translatedClasses = null;
+        translationFailures.clear();
+        dexOutPool = null;
+        dexOutputFutures.clear();
+        dexOutputArrays.clear();
+        maxMethodIdsInProcess = 0;
+        maxFieldIdsInProcess = 0;
+        anyFilesProcessed = false;
+        minimumFileAge = 0;
+        classesInMainDex = null;
+        humanOutWriter = null;
+        OptimizerOptions.clearOptimizeLists();
+        CodeStatistics.clear();
+        PhaseTimer.resetAll();
     }
 
     /**
@@ -311,10 +402,21 @@ public class Main {
             return 1;
         }
 
+        if (translationCache != null && args.verbose) {
+            DxConsole.out.println("translation cache: "
+                    + translationCache.getHits() + " hits, "
+                    + translationCache.getMisses() + " misses");
+        }
+
         if (args.incremental && !anyFilesProcessed) {
             return 0; // this was a no-op incremental build
         }
 
+        if (!outputDex.isEmpty() && canStreamMonoDex()) {
+            // Nothing is merged into the output, so write it directly.
+            return writeDexTo(outputDex, new File(args.outName)) ? 0 : 2;
+        }
+
         // this array is null if no classes were defined
         byte[] outArray = null;
 
@@ -326,11 +428,15 @@ public class Main {
             }
         }
 
+        // Cached classes go in first, so that they take part in an
+        // incremental merge like freshly translated ones.
+        outArray = mergeDexBuffers(outArray, classDexBuffers, true);
+
         if (args.incremental) {
             outArray = mergeIncremental(outArray, incrementalOutFile);
         }
 
-        outArray = mergeLibraryDexBuffers(outArray);
+        outArray = mergeDexBuffers(outArray, libraryDexBuffers, false);
 
         if (args.jarOutput) {
             // Effectively free up the (often massive) DexFile memory.
@@ -362,6 +468,27 @@ public class Main {
 
         dexOutPool = Executors.newFixedThreadPool(args.numThreads);
 
+        boolean succeeded = false;
+        try {
+            int result = writeMultiDex();
+            succeeded = (result == 0);
+            return result;
+        } finally {
+            if (!succeeded) {
+                discardMultiDexStreamFiles();
+            }
+        }
+    }
+
+    /**
+     * Processes all the files and writes the multi dex output. Dex files
+     * that are streamed to a directory are first written to temporary
+     * files, which are only renamed into place once everything else has
+     * been written.
+     *
+     * @return 0 if success > 0 otherwise.
+     */
+    private static int writeMultiDex() throws IOException {
         if (!processAllFiles()) {
             return 1;
         }
@@ -373,7 +500,8 @@ public class Main {
         if (outputDex != null) {
             // this array is null if no classes were defined
 
-            dexOutputFutures.add(dexOutPool.submit(new DexWriter(outputDex)));
+            dexOutputFutures.add(dexOutPool.submit(new DexWriter(outputDex,
+                    getMultiDexStreamFile(dexOutputFutures.size()))));
 
             // Effectively free up the (often massive) DexFile memory.
             outputDex = null;
@@ -409,6 +537,10 @@ public class Main {
             File outDir = new File(args.outName);
             assert outDir.isDirectory();
             for (int i = 0; i < dexOutputArrays.size(); i++) {
+                if (dexOutputArrays.get(i) == null) {
+                    // Already streamed out by its DexWriter.
+                    continue;
+                }
                 OutputStream out = new FileOutputStream(new File(outDir, getDexFileName(i)));
                 try {
                     out.write(dexOutputArrays.get(i));
@@ -416,11 +548,73 @@ public class Main {
                     closeOutput(out);
                 }
             }
+            for (int i = 0; i < dexOutputArrays.size(); i++) {
+                if (dexOutputArrays.get(i) == null) {
+                    File file = new File(outDir, getDexFileName(i));
+                    file.delete();
+                    if (!getMultiDexStreamFile(i).renameTo(file)) {
+                        DxConsole.err.println("\ntrouble writing output: "
+                                + "can't rename to " + file);
+                        return 2;
+                    }
+                }
+            }
         }
 
         return 0;
     }
 
+    /**
+     * Waits for the dex writers of a failed multi dex run and deletes the
+     * temporary files they streamed to, so that the run leaves no partial
+     * output behind.
+     */
+    private static void discardMultiDexStreamFiles() {
+        dexOutPool.shutdown();
+        try {
+            dexOutPool.awaitTermination(600L, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            // Delete what can be deleted anyway.
+        }
+
+        for (int i = 0; i < dexOutputFutures.size(); i++) {
+            File file = getMultiDexStreamFile(i);
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns whether the mono dex output can be streamed straight to its
+     * file, which is the case when it's a plain {@code .dex} file that
+     * nothing else gets merged into.
+     */
+    private static boolean canStreamMonoDex() {
+        return !args.jarOutput && args.outName != null
+                && !isStandardOutput(args.outName) && !args.incremental
+                && args.humanOutName == null && libraryDexBuffers.isEmpty()
+                && classDexBuffers.isEmpty();
+    }
+
+    /**
+     * Returns the temporary file that the multi dex output of the given
+     * index can be streamed to, if it is written to a directory. It gets
+     * renamed to its proper name once the whole run has succeeded.
+     *
+     * @param i the index of the dex file
+     * @return {@code null-ok;} the file, or {@code null} if the dex file
+     * has to be converted to a {@code byte[]}
+     */
+    private static File getMultiDexStreamFile(int i) {
+        if (args.jarOutput || args.outName == null
+                || args.humanOutName != null) {
+            return null;
+        }
+
+        return new File(args.outName, getDexFileName(i) + TEMP_SUFFIX);
+    }
+
     private static String getDexFileName(int i) {
         if (i == 0) {
             return DexFormat.DEX_IN_JAR_NAME;
@@ -486,21 +680,36 @@ public class Main {
     }
 
     /**
-     * Merges the dex files in library jars. If multiple dex files define the
-     * same type, this fails with an exception.
+     * Merges the given dex files, from library jars or the translation
+     * cache, into the output. If multiple dex files define the same type,
+     * this fails with an exception.
+     *
+     * @param fromCache whether the dex files are {@link #classDexBuffers}
      */
-    private static byte[] mergeLibraryDexBuffers(byte[] outArray) throws IOException {
+    private static byte[] mergeDexBuffers(byte[] outArray, List<byte[]> buffers,
+            boolean fromCache) throws IOException {
+        if (buffers.isEmpty()) {
+            return outArray;
+        }
         ArrayList<Dex> dexes = new ArrayList<Dex>();
         if (outArray != null) {
             dexes.add(new Dex(outArray));
         }
-        for (byte[] libraryDex : libraryDexBuffers) {
-            dexes.add(new Dex(libraryDex));
+        for (byte[] buffer : buffers) {
+            dexes.add(new Dex(buffer));
         }
         if (dexes.isEmpty()) {
             return null;
         }
-        Dex merged = new DexMerger(dexes.toArray(new Dex[dexes.size()]), CollisionPolicy.FAIL).merge();
+        DexMerger merger = new DexMerger(dexes.toArray(new Dex[dexes.size()]),
+                CollisionPolicy.FAIL);
+        if (fromCache) {
+            // Single class dex files each bring their own copy of the shared
+            // ids, so the pessimistic merge is always worth compacting.
+            merger.setCompactWasteThreshold(0);
+            merger.setVerbose(args.verbose);
+        }
+        Dex merged = merger.merge();
         return merged.getBytes();
     }
 
@@ -526,9 +735,12 @@ public class Main {
                args.numThreads, 0, TimeUnit.SECONDS,
                new ArrayBlockingQueue<Runnable>(2 * args.numThreads, true),
                new ThreadPoolExecutor.CallerRunsPolicy());
+        // read archive entries ahead, in parallel
+        if (args.numThreads > 1) {
+            archiveReaderPool = Executors.newFixedThreadPool(args.numThreads);
+        }
         // collect translated and write to dex in order
-        classDefItemConsumer = Executors.newSingleThreadExecutor();
-
+        translatedClasses = new TranslatedClassBuffer();
 
         try {
             if (args.mainDexListFile != null) {
@@ -578,36 +790,34 @@ public class Main {
              * Ignore it and just let the error reporting do
              * their things.
              */
+        } finally {
+            if (archiveReaderPool != null) {
+                archiveReaderPool.shutdownNow();
+            }
         }
 
         try {
+            // Translated classes are added to the dex file by the threads
+            // translating them, so this also waits for them to be added.
             classTranslatorPool.shutdown();
             classTranslatorPool.awaitTermination(600L, TimeUnit.SECONDS);
-            classDefItemConsumer.shutdown();
-            classDefItemConsumer.awaitTermination(600L, TimeUnit.SECONDS);
 
-            for (Future<Boolean> f : addToDexFutures) {
-                try {
-                    f.get();
-                } catch(ExecutionException ex) {
-                    // Catch any previously uncaught exceptions from
-                    // class translation and adding to dex.
-                    int count = errors.incrementAndGet();
-                    if (count < 10) {
-                        DxConsole.err.println("Uncaught translation error: " + ex.getCause());
-                    } else {
-                        throw new InterruptedException("Too many errors");
-                    }
+            for (Throwable t : translationFailures) {
+                // Catch any previously uncaught exceptions from
+                // class translation and adding to dex.
+                int count = errors.incrementAndGet();
+                if (count < 10) {
+                    DxConsole.err.println("Uncaught translation error: " + t);
+                } else {
+                    throw new InterruptedException("Too many errors");
                 }
             }
 
         } catch (InterruptedException ie) {
             classTranslatorPool.shutdownNow();
-            classDefItemConsumer.shutdownNow();
             throw new RuntimeException("Translation has been interrupted", ie);
         } catch (Exception e) {
             classTranslatorPool.shutdownNow();
-            classDefItemConsumer.shutdownNow();
             e.printStackTrace(System.out);
             throw new RuntimeException("Unexpected exception in translator thread.", e);
         }
@@ -646,7 +856,8 @@ public class Main {
     private static void rotateDexFile() {
         if (outputDex != null) {
             if (dexOutPool != null) {
-                dexOutputFutures.add(dexOutPool.submit(new DexWriter(outputDex)));
+                dexOutputFutures.add(dexOutPool.submit(new DexWriter(outputDex,
+                        getMultiDexStreamFile(dexOutputFutures.size()))));
             } else {
                 dexOutputArrays.add(writeDex(outputDex));
             }
@@ -667,6 +878,9 @@ public class Main {
         ClassPathOpener opener;
 
         opener = new ClassPathOpener(pathname, true, filter, new FileBytesConsumer());
+        if (archiveReaderPool != null) {
+            opener.setReadPool(archiveReaderPool, 4 * args.numThreads);
+        }
 
         if (opener.process()) {
           updateStatus(true);
@@ -744,6 +958,12 @@ public class Main {
             checkClassName(name);
         }
 
+        if (translationCache != null) {
+            classTranslatorPool.execute(new CachedClassTranslatorTask(name,
+                    bytes, translatedClasses.reserve()));
+            return true;
+        }
+
         try {
             new DirectClassFileConsumer(name, bytes, null).call(
                     new ClassParserTask(name, bytes).call());
@@ -757,17 +977,26 @@ public class Main {
 
     private static DirectClassFile parseClass(String name, byte[] bytes) {
 
+        long start = PARSE_TIMER.start();
         DirectClassFile cf = new DirectClassFile(bytes, name,
                 args.cfOptions.strictNameCheck);
         cf.setAttributeFactory(StdAttributeFactory.THE_ONE);
+        /*
+         * Only parse the attributes the translation asks for; in
+         * particular, debug information that args.cfOptions drops is
+         * never parsed.
+         */
+        cf.setLazyAttributes(true);
         cf.getMagic(); // triggers the actual parsing
+        PARSE_TIMER.end(start);
         return cf;
     }
 
-    private static ClassDefItem translateClass(byte[] bytes, DirectClassFile cf) {
+    private static ClassDefItem translateClass(byte[] bytes, DirectClassFile cf,
+            DexFile dexFile) {
         try {
             return CfTranslator.translate(cf, bytes, args.cfOptions,
-                    args.dexOptions, outputDex);
+                    args.dexOptions, dexFile);
         } catch (ParseException ex) {
             DxConsole.err.println("\ntrouble processing:");
             if (args.debug) {
@@ -780,10 +1009,32 @@ public class Main {
         return null;
     }
 
+    /**
+     * Translates one classfile into a dex file of its own.
+     *
+     * @param name {@code non-null;} name of the file
+     * @param bytes {@code non-null;} contents of the file
+     * @return {@code null-ok;} the contents of the dex file, or {@code null}
+     * if there was a problem
+     */
+    private static byte[] translateClassToDex(String name, byte[] bytes)
+            throws IOException {
+        DexFile classDex = new DexFile(args.dexOptions);
+        ClassDefItem clazz = translateClass(bytes, parseClass(name, bytes),
+                classDex);
+        if (clazz == null) {
+            return null;
+        }
+        classDex.add(clazz);
+        return classDex.toDex(null, false);
+    }
+
     private static boolean addClassToDex(ClassDefItem clazz) {
+        long start = ADD_TO_DEX_TIMER.start();
         synchronized (outputDex) {
             outputDex.add(clazz);
         }
+        ADD_TO_DEX_TIMER.end(start);
         return true;
     }
 
@@ -852,7 +1103,9 @@ public class Main {
                      * This is the usual case: Create an output .dex file,
                      * and write it, dump it, etc.
                      */
+                    long start = TO_DEX_TIMER.start();
                     outArray = outputDex.toDex(humanOutWriter, args.verboseDump);
+                    TO_DEX_TIMER.end(start);
                 }
 
                 if (args.statistics) {
@@ -876,6 +1129,41 @@ public class Main {
         return outArray;
     }
 
+    /**
+     * Streams the given {@link DexFile} straight to a file, without ever
+     * holding all of it in memory, and prints statistics if required.
+     *
+     * @param outputDex {@code non-null;} the dex file
+     * @param file {@code non-null;} where to write it
+     * @return whether the write was successful
+     */
+    private static boolean writeDexTo(DexFile outputDex, File file) {
+        try {
+            long start = TO_DEX_TIMER.start();
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                outputDex.writeTo(out.getChannel());
+            } finally {
+                out.close();
+            }
+            TO_DEX_TIMER.end(start);
+
+            if (args.statistics) {
+                DxConsole.out.println(outputDex.getStatistics().toHuman());
+            }
+        } catch (Exception ex) {
+            if (args.debug) {
+                DxConsole.err.println("\ntrouble writing output:");
+                ex.printStackTrace(DxConsole.err);
+            } else {
+                DxConsole.err.println("\ntrouble writing output: " +
+                                   ex.getMessage());
+            }
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Creates a jar file from the resources (including dex file arrays).
      *
@@ -889,6 +1177,7 @@ public class Main {
          * resources map in a uniform manner.
          */
 
+        long start = JAR_WRITE_TIMER.start();
         try {
             Manifest manifest = makeManifest();
             OutputStream out = openOutput(fileName);
@@ -915,6 +1204,7 @@ public class Main {
                 jarOut.finish();
                 jarOut.flush();
                 closeOutput(out);
+                JAR_WRITE_TIMER.end(start);
             }
         } catch (Exception ex) {
             if (args.debug) {
@@ -973,14 +1263,23 @@ public class Main {
      * @return {@code non-null;} the opened file
      */
     private static OutputStream openOutput(String name) throws IOException {
-        if (name.equals("-") ||
-                name.startsWith("-.")) {
+        if (isStandardOutput(name)) {
             return System.out;
         }
 
         return new FileOutputStream(name);
     }
 
+    /**
+     * Returns whether the named output file stands for {@link System#out}.
+     *
+     * @param name {@code non-null;} the file name
+     * @return whether {@link #openOutput} returns {@link System#out}
+     */
+    private static boolean isStandardOutput(String name) {
+        return name.equals("-") || name.startsWith("-.");
+    }
+
     /**
      * Flushes and closes the given output stream, except if it happens to be
      * {@link System#out} in which case this method does the flush but not
@@ -1237,6 +1536,8 @@ public class Main {
 
         private static final String INPUT_LIST_OPTION = "--input-list";
 
+        private static final String CACHE_DIR_OPTION = "--cache-dir";
+
         /** whether to run in debug mode */
         public boolean debug = false;
 
@@ -1294,6 +1595,12 @@ public class Main {
         /** whether to merge with the output dex file if it exists. */
         public boolean incremental = false;
 
+        /**
+         * {@code null-ok;} directory of the translation cache, or
+         * {@code null} to always translate every class
+         */
+        public String cacheDir = null;
+
         /** whether to force generation of const-string/jumbo for all indexes,
          *  to allow merges between dex files with many strings. */
         public boolean forceJumbo = false;
@@ -1310,9 +1617,33 @@ public class Main {
         /** Filename containing list of methods to NOT optimize */
         public String dontOptimizeListFile = null;
 
+        /**
+         * {@code >= 0;} instruction count above which methods aren't
+         * optimized, or {@code 0} for no limit
+         */
+        public int optimizeMaxInsns = 0;
+
+        /**
+         * {@code >= 0;} register count above which methods aren't
+         * optimized, or {@code 0} for no limit
+         */
+        public int optimizeMaxRegisters = 0;
+
+        /**
+         * {@code >= 0;} time budget, in milliseconds, for optimizing one
+         * method, or {@code 0} for no budget
+         */
+        public int optimizeTimeBudget = 0;
+
         /** Whether to print statistics to stdout at end of compile cycle */
         public boolean statistics;
 
+        /**
+         * {@code null-ok;} file to write a JSON report of phase timings and
+         * counters to, or {@code null} not to time phases
+         */
+        public String metricsFile = null;
+
         /** Options for class file transformation */
         public CfOptions cfOptions;
 
@@ -1469,6 +1800,8 @@ public class Main {
                     coreLibrary = true;
                 } else if (parser.isArg("--statistics")) {
                     statistics = true;
+                } else if (parser.isArg("--metrics=")) {
+                    metricsFile = parser.getLastValue();
                 } else if (parser.isArg("--optimize-list=")) {
                     if (dontOptimizeListFile != null) {
                         System.err.println("--optimize-list and "
@@ -1485,6 +1818,14 @@ public class Main {
                     }
                     optimize = true;
                     dontOptimizeListFile = parser.getLastValue();
+                } else if (parser.isArg("--optimize-max-insns=")) {
+                    optimizeMaxInsns = Integer.parseInt(parser.getLastValue());
+                } else if (parser.isArg("--optimize-max-registers=")) {
+                    optimizeMaxRegisters =
+                        Integer.parseInt(parser.getLastValue());
+                } else if (parser.isArg("--optimize-time-budget=")) {
+                    optimizeTimeBudget =
+                        Integer.parseInt(parser.getLastValue());
                 } else if (parser.isArg("--keep-classes")) {
                     keepClassesInJar = true;
                 } else if (parser.isArg("--output=")) {
@@ -1529,6 +1870,8 @@ public class Main {
                     numThreads = Integer.parseInt(parser.getLastValue());
                 } else if (parser.isArg(INCREMENTAL_OPTION)) {
                     incremental = true;
+                } else if (parser.isArg(CACHE_DIR_OPTION + "=")) {
+                    cacheDir = parser.getLastValue();
                 } else if (parser.isArg("--force-jumbo")) {
                     forceJumbo = true;
                 } else if (parser.isArg(MULTI_DEX_OPTION)) {
@@ -1600,6 +1943,18 @@ public class Main {
                 throw new UsageException();
             }
 
+            if (cacheDir != null && multiDex) {
+                System.err.println(CACHE_DIR_OPTION + " is not supported with "
+                    + MULTI_DEX_OPTION);
+                throw new UsageException();
+            }
+
+            if (cacheDir != null && humanOutName != null) {
+                System.err.println(CACHE_DIR_OPTION + " is not supported with "
+                    + "--dump-to or --dump-method");
+                throw new UsageException();
+            }
+
             if (outputIsDirectory && !multiDex) {
                 outName = new File(outName, DexFormat.DEX_IN_JAR_NAME).getPath();
             }
@@ -1619,6 +1974,9 @@ public class Main {
             cfOptions.optimize = optimize;
             cfOptions.optimizeListFile = optimizeListFile;
             cfOptions.dontOptimizeListFile = dontOptimizeListFile;
+            cfOptions.optimizeMaxInsns = optimizeMaxInsns;
+            cfOptions.optimizeMaxRegisters = optimizeMaxRegisters;
+            cfOptions.optimizeTimeBudget = optimizeTimeBudget;
             cfOptions.statistics = statistics;
 
             if (warnings) {
@@ -1788,75 +2146,142 @@ public class Main {
             }
 
             // Submit class to translation phase.
-            Future<ClassDefItem> cdif = classTranslatorPool.submit(
-                    new ClassTranslatorTask(name, bytes, cf));
-            Future<Boolean> res = classDefItemConsumer.submit(new ClassDefItemConsumer(
-                    name, cdif, maxMethodIdsInClass, maxFieldIdsInClass));
-            addToDexFutures.add(res);
+            classTranslatorPool.execute(new ClassTranslatorTask(name, bytes, cf,
+                    new TranslatedClass(translatedClasses.reserve(),
+                            maxMethodIdsInClass, maxFieldIdsInClass)));
 
             return true;
         }
     }
 
 
-    /** Callable helper class to translate classes in parallel  */
-    private static class ClassTranslatorTask implements Callable<ClassDefItem> {
+    /**
+     * Result of translating one class, waiting in {@link #translatedClasses}
+     * to be added to the output in input file order.
+     */
+    private static class TranslatedClass {
+
+        /** sequence number in {@link #translatedClasses} */
+        final long seq;
+        /** estimated method indices, as reserved in the current dex file */
+        final int maxMethodIdsInClass;
+        /** estimated field indices, as reserved in the current dex file */
+        final int maxFieldIdsInClass;
+        /** {@code null-ok;} the translated class */
+        ClassDefItem clazz;
+        /** {@code null-ok;} the class translated to a dex file of its own */
+        byte[] dex;
+        /** {@code null-ok;} what went wrong translating the class */
+        Throwable failure;
+
+        private TranslatedClass(long seq, int maxMethodIdsInClass,
+                int maxFieldIdsInClass) {
+            this.seq = seq;
+            this.maxMethodIdsInClass = maxMethodIdsInClass;
+            this.maxFieldIdsInClass = maxFieldIdsInClass;
+        }
+    }
+
+    /** Runnable helper class to translate classes in parallel  */
+    private static class ClassTranslatorTask implements Runnable {
 
         String name;
         byte[] bytes;
         DirectClassFile classFile;
+        TranslatedClass result;
 
         private ClassTranslatorTask(String name, byte[] bytes,
-                DirectClassFile classFile) {
+                DirectClassFile classFile, TranslatedClass result) {
             this.name = name;
             this.bytes = bytes;
             this.classFile = classFile;
+            this.result = result;
         }
 
         @Override
-        public ClassDefItem call() {
-            ClassDefItem clazz = translateClass(bytes, classFile);
-            return clazz;
+        public void run() {
+            try {
+                result.clazz = translateClass(bytes, classFile, outputDex);
+            } catch (Throwable t) {
+                result.failure = t;
+            } finally {
+                translatedClasses.put(result.seq, result);
+            }
         }
     }
 
     /**
-     * Callable helper class used to collect the results of
-     * the parallel translation phase, adding the translated classes to
-     * the current dex file in correct (deterministic) file order.
-     * This class is also responsible for coordinating dex file rotation
-     * with the DirectClassFileConsumer class.
+     * Runnable helper class to look classes up in the translation cache,
+     * translating and storing those that are missing, in parallel.
      */
-    private static class ClassDefItemConsumer implements Callable<Boolean> {
+    private static class CachedClassTranslatorTask implements Runnable {
 
         String name;
-        Future<ClassDefItem> futureClazz;
-        int maxMethodIdsInClass;
-        int maxFieldIdsInClass;
+        byte[] bytes;
+        TranslatedClass result;
 
-        private ClassDefItemConsumer(String name, Future<ClassDefItem> futureClazz,
-                int maxMethodIdsInClass, int maxFieldIdsInClass) {
+        private CachedClassTranslatorTask(String name, byte[] bytes,
+                long seq) {
             this.name = name;
-            this.futureClazz = futureClazz;
-            this.maxMethodIdsInClass = maxMethodIdsInClass;
-            this.maxFieldIdsInClass = maxFieldIdsInClass;
+            this.bytes = bytes;
+            this.result = new TranslatedClass(seq, 0, 0);
         }
 
         @Override
-        public Boolean call() throws Exception {
+        public void run() {
             try {
-                ClassDefItem clazz = futureClazz.get();
-                if (clazz != null) {
-                    addClassToDex(clazz);
+                String key = translationCache.key(name, bytes);
+                byte[] dex = translationCache.get(key);
+                if (dex == null) {
+                    TimeBudget.takeFallback(); // forget earlier classes
+                    dex = translateClassToDex(name, bytes);
+                    /*
+                     * A method that ran out of its time budget may well
+                     * get optimized next time, so don't cache the
+                     * unoptimized result.
+                     */
+                    if (dex != null && !TimeBudget.takeFallback()) {
+                        translationCache.put(key, dex);
+                    }
+                }
+                result.dex = dex;
+            } catch (Throwable t) {
+                result.failure = t;
+            } finally {
+                translatedClasses.put(result.seq, result);
+            }
+        }
+    }
+
+    /**
+     * Reorder buffer used to collect the results of the parallel
+     * translation phase, adding the translated classes to the current dex
+     * file, or their dex files to {@link #classDexBuffers}, in correct
+     * (deterministic) file order. Classes are added by whichever
+     * translating thread completes the input order up to them.
+     * This class is also responsible for coordinating dex file rotation
+     * with the DirectClassFileConsumer class.
+     */
+    private static class TranslatedClassBuffer
+            extends ReorderBuffer<TranslatedClass> {
+
+        @Override
+        protected void process(TranslatedClass result) {
+            try {
+                if (result.failure != null) {
+                    // Keep previously uncaught translation exceptions.
+                    // These, as well as any exceptions from addClassToDex,
+                    // are reported in processAllFiles().
+                    translationFailures.add(result.failure);
+                } else if (result.dex != null) {
+                    classDexBuffers.add(result.dex);
+                    updateStatus(true);
+                } else if (result.clazz != null) {
+                    addClassToDex(result.clazz);
                     updateStatus(true);
                 }
-                return true;
-            } catch(ExecutionException ex) {
-                // Rethrow previously uncaught translation exceptions.
-                // These, as well as any exceptions from addClassToDex,
-                // are handled and reported in processAllFiles().
-                Throwable t = ex.getCause();
-                throw (t instanceof Exception) ? (Exception) t : ex;
+            } catch (Throwable t) {
+                translationFailures.add(t);
             } finally {
                 if (args.multiDex) {
                     // Having added our actual indicies to the dex file,
@@ -1865,8 +2290,8 @@ public class Main {
                     // waiting to determine if more classes can be added to the
                     // current dex file, or if a new dex file must be created.
                     synchronized(dexRotationLock) {
-                        maxMethodIdsInProcess -= maxMethodIdsInClass;
-                        maxFieldIdsInProcess -= maxFieldIdsInClass;
+                        maxMethodIdsInProcess -= result.maxMethodIdsInClass;
+                        maxFieldIdsInProcess -= result.maxFieldIdsInClass;
                         dexRotationLock.notifyAll();
                     }
                 }
@@ -1874,18 +2299,31 @@ public class Main {
         }
     }
 
-    /** Callable helper class to convert dex files in worker threads */
+    /**
+     * Callable helper class to convert dex files in worker threads, or to
+     * stream them straight to their files, in which case the result is
+     * {@code null}.
+     */
     private static class DexWriter implements Callable<byte[]> {
 
         private DexFile dexFile;
 
-        private DexWriter(DexFile dexFile) {
+        private File outFile;
+
+        private DexWriter(DexFile dexFile, File outFile) {
             this.dexFile = dexFile;
+            this.outFile = outFile;
         }
 
         @Override
         public byte[] call() throws IOException {
-            return writeDex(dexFile);
+            if (outFile == null) {
+                return writeDex(dexFile);
+            }
+            if (!writeDexTo(dexFile, outFile)) {
+                throw new IOException("trouble writing " + outFile);
+            }
+            return null;
         }
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.dexer;
+
+import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.util.InternTable;
+import com.android.dx.util.PhaseTimer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+/**
+ * Writes the metrics of a run as a JSON object: the wall time, the time
+ * spent in each {@link PhaseTimer phase}, the state of each
+ * {@link InternTable}, and optionally the {@link CodeStatistics} counters.
+ */
+final class MetricsReport {
+    /**
+     * This class is uninstantiable.
+     */
+    private MetricsReport() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Writes the report.
+     *
+     * @param out {@code non-null;} where to write to; not closed
+     * @param wallNanos wall time of the run, in nanoseconds
+     * @param threads number of translation threads used
+     * @param statistics whether to include the code statistics counters
+     */
+    public static void write(OutputStream out, long wallNanos, int threads,
+            boolean statistics) throws IOException {
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
+
+        pw.println("{");
+        pw.println("  \"wallNanos\": " + wallNanos + ",");
+        pw.println("  \"threads\": " + threads + ",");
+
+        pw.print("  \"phases\": {");
+        String sep = "\n";
+        for (PhaseTimer timer : PhaseTimer.getAll()) {
+            pw.print(sep + "    " + quote(timer.getName())
+                    + ": {\"count\": " + timer.getCount()
+                    + ", \"nanos\": " + timer.getNanos() + "}");
+            sep = ",\n";
+        }
+        pw.println("\n  },");
+
+        pw.print("  \"internTables\": {");
+        sep = "\n";
+        for (InternTable<?, ?> table : InternTable.getAll()) {
+            pw.print(sep + "    " + quote(table.getName())
+                    + ": {\"size\": " + table.size()
+                    + ", \"hits\": " + table.getHits()
+                    + ", \"misses\": " + table.getMisses() + "}");
+            sep = ",\n";
+        }
+        pw.print("\n  }");
+
+        if (statistics) {
+            pw.println(",");
+            pw.println("  \"code\": {");
+            pw.println("    \"originalBytes\": "
+                    + CodeStatistics.runningOriginalBytes.get() + ",");
+            pw.println("    \"deltaRegisters\": "
+                    + CodeStatistics.runningDeltaRegisters.get() + ",");
+            pw.println("    \"deltaInsns\": "
+                    + CodeStatistics.runningDeltaInsns.get() + ",");
+            pw.println("    \"totalInsns\": "
+                    + CodeStatistics.runningTotalInsns.get() + ",");
+            pw.println("    \"dexDeltaRegisters\": "
+                    + CodeStatistics.dexRunningDeltaRegisters.get() + ",");
+            pw.println("    \"dexDeltaInsns\": "
+                    + CodeStatistics.dexRunningDeltaInsns.get() + ",");
+            pw.println("    \"dexTotalInsns\": "
+                    + CodeStatistics.dexRunningTotalInsns.get() + ",");
+            pw.println("    \"timeBudgetFallbacks\": "
+                    + CodeStatistics.runningTimeBudgetFallbacks.get());
+            pw.print("  }");
+        }
+
+        pw.println();
+        pw.println("}");
+        pw.flush();
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     */
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+}
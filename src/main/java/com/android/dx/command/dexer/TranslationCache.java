@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.command.dexer;
+
+import com.android.dex.Dex;
+import com.android.dex.util.FileUtils;
+import com.android.dx.Version;
+import com.android.dx.dex.DexOptions;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.util.LongCounter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * On-disk cache of translated classes. Each entry is a {@code .dex} file
+ * holding just one class, keyed by the SHA-1 of the class file bytes, its
+ * name, and every option that affects its translation. Entries are never
+ * modified once written, so any number of processes may share a cache
+ * directory.
+ */
+final class TranslationCache {
+    /** {@code non-null;} encoding of the textual parts of the key */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** {@code non-null;} directory holding the entries */
+    private final File dir;
+
+    /**
+     * {@code non-null;} digest of the translation options, which is mixed
+     * into every key
+     */
+    private final byte[] optionsDigest;
+
+    /** number of lookups that found an entry */
+    private final LongCounter hits = new LongCounter();
+
+    /** number of lookups that didn't */
+    private final LongCounter misses = new LongCounter();
+
+    /**
+     * Constructs an instance.
+     *
+     * @param dir {@code non-null;} directory holding the entries; created
+     * if it doesn't exist
+     * @param cfOptions {@code non-null;} options for class file translation
+     * @param dexOptions {@code non-null;} options for dex output
+     */
+    public TranslationCache(File dir, CfOptions cfOptions,
+            DexOptions dexOptions) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("can't create cache directory " + dir);
+        }
+
+        this.dir = dir;
+
+        MessageDigest digest = newDigest();
+        String options = "dx " + Version.VERSION
+            + " positions=" + cfOptions.positionInfo
+            + " locals=" + cfOptions.localInfo
+            + " strict=" + cfOptions.strictNameCheck
+            + " optimize=" + cfOptions.optimize
+            + " maxInsns=" + cfOptions.optimizeMaxInsns
+            + " maxRegisters=" + cfOptions.optimizeMaxRegisters
+            + " timeBudget=" + cfOptions.optimizeTimeBudget
+            + " api=" + dexOptions.targetApiLevel
+            + " jumbo=" + dexOptions.forceJumbo;
+        digest.update(options.getBytes(UTF_8));
+        updateWithFile(digest, "optimize-list", cfOptions.optimizeListFile);
+        updateWithFile(digest, "no-optimize-list",
+                cfOptions.dontOptimizeListFile);
+        this.optionsDigest = digest.digest();
+    }
+
+    /**
+     * Computes the key of a class.
+     *
+     * @param name {@code non-null;} name of the class file
+     * @param bytes {@code non-null;} contents of the class file
+     * @return {@code non-null;} the key, as a hex string
+     */
+    public String key(String name, byte[] bytes) {
+        MessageDigest digest = newDigest();
+        digest.update(optionsDigest);
+        digest.update(name.getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(bytes);
+
+        byte[] sha = digest.digest();
+        StringBuilder sb = new StringBuilder(sha.length * 2);
+        for (byte b : sha) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the translated class stored under {@code key}. Entries that
+     * can't be read or fail their checksum are treated as absent.
+     *
+     * @param key {@code non-null;} the key
+     * @return {@code null-ok;} the contents of the {@code .dex} file, or
+     * {@code null} if there is no valid entry
+     */
+    public byte[] get(String key) {
+        File file = entryFile(key);
+
+        if (file.isFile()) {
+            try {
+                byte[] bytes = FileUtils.readFile(file);
+                Dex dex = new Dex(bytes);
+                if (dex.getTableOfContents().checksum == dex.computeChecksum()) {
+                    hits.increment();
+                    return bytes;
+                }
+            } catch (Exception ex) {
+                // Fall through; the entry gets rewritten.
+            }
+        }
+
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Stores a translated class under {@code key}. The entry is written to
+     * a temporary file which is then renamed, so that readers never see a
+     * partial entry. Failures are ignored; the class just gets translated
+     * again next time.
+     *
+     * @param key {@code non-null;} the key
+     * @param dex {@code non-null;} the contents of the {@code .dex} file
+     */
+    public void put(String key, byte[] dex) {
+        File file = entryFile(key);
+        File temp = null;
+
+        try {
+            temp = File.createTempFile(key, ".tmp", dir);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(dex);
+            } finally {
+                out.close();
+            }
+            if (temp.renameTo(file)) {
+                temp = null;
+            }
+        } catch (IOException ex) {
+            // Ignore it; see above.
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of lookups that found an entry.
+     *
+     * @return {@code >= 0;} the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that didn't find an entry.
+     *
+     * @return {@code >= 0;} the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private File entryFile(String key) {
+        return new File(dir, key + ".dex");
+    }
+
+    /**
+     * Mixes the name and contents of an optional file into {@code digest}.
+     */
+    private static void updateWithFile(MessageDigest digest, String what,
+            String fileName) {
+        digest.update(what.getBytes(UTF_8));
+        digest.update((byte) 0);
+
+        if (fileName != null) {
+            digest.update(FileUtils.readFile(fileName));
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError();
+        }
+    }
+}
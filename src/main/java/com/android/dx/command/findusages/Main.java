@@ -22,12 +22,17 @@ import java.io.IOException;
 import java.io.PrintWriter;
 
 public final class Main {
+    /** upper bound on the total length of decoded strings kept in memory */
+    private static final int STRING_CACHE_CHARS = 4 * 1024 * 1024;
+
     public static void main(String[] args) throws IOException {
         String dexFile = args[0];
         String declaredBy = args[1];
         String memberName = args[2];
 
-        Dex dex = new Dex(new File(dexFile));
+        Dex dex = Dex.open(new File(dexFile).toPath());
+        // Class and member names are re-read for every match that gets printed.
+        dex.enableStringCache(STRING_CACHE_CHARS);
         PrintWriter out = new PrintWriter(System.out);
         new FindUsages(dex, declaredBy, memberName, out).findUsages();
         out.flush();
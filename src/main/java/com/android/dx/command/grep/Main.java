@@ -23,11 +23,16 @@ import java.io.PrintWriter;
 import java.util.regex.Pattern;
 
 public final class Main {
+    /** upper bound on the total length of decoded strings kept in memory */
+    private static final int STRING_CACHE_CHARS = 4 * 1024 * 1024;
+
     public static void main(String[] args) throws IOException {
         String dexFile = args[0];
         String pattern = args[1];
 
-        Dex dex = new Dex(new File(dexFile));
+        Dex dex = Dex.open(new File(dexFile).toPath());
+        // Class and member names are re-read for every match that gets printed.
+        dex.enableStringCache(STRING_CACHE_CHARS);
         int count = new Grep(dex, Pattern.compile(pattern), new PrintWriter(System.out)).grep();
         System.exit((count > 0) ? 0 : 1);
     }
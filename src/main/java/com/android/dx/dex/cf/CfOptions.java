@@ -42,6 +42,26 @@ public class CfOptions {
     /** filename containing list of methods <i>not</i> to optimize */
     public String dontOptimizeListFile = null;
 
+    /**
+     * {@code >= 0;} methods whose unoptimized rop form has more
+     * instructions than this are translated without optimization, since
+     * optimizing them takes superlinear time; {@code 0} for no limit
+     */
+    public int optimizeMaxInsns = 0;
+
+    /**
+     * {@code >= 0;} methods whose unoptimized rop form uses more registers
+     * than this are translated without optimization; {@code 0} for no limit
+     */
+    public int optimizeMaxRegisters = 0;
+
+    /**
+     * {@code >= 0;} time budget, in milliseconds, for optimizing one
+     * method; methods that overrun it are translated again without
+     * optimization. {@code 0} for no budget.
+     */
+    public int optimizeTimeBudget = 0;
+
     /** whether to print statistics to stdout at end of compile cycle */
     public boolean statistics;
 
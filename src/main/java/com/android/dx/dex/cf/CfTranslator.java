@@ -60,6 +60,9 @@ import com.android.dx.rop.cst.CstMethodRef;
 import com.android.dx.rop.cst.CstShort;
 import com.android.dx.rop.type.Type;
 import com.android.dx.ssa.Optimizer;
+import com.android.dx.util.PhaseTimer;
+import com.android.dx.util.TimeBudget;
+import com.android.dx.util.TimeBudgetExceededException;
 
 /**
  * Static method that turns {@code byte[]}s containing Java
@@ -69,6 +72,19 @@ public class CfTranslator {
     /** set to {@code true} to enable development-time debugging code */
     private static final boolean DEBUG = false;
 
+    /** {@code non-null;} time spent converting bytecode to rop form */
+    private static final PhaseTimer ROPPER_TIMER = new PhaseTimer("ropper");
+
+    /**
+     * {@code non-null;} time spent in the SSA optimizer, register
+     * allocation included
+     */
+    private static final PhaseTimer OPTIMIZE_TIMER = new PhaseTimer("optimize");
+
+    /** {@code non-null;} time spent converting rop form to dex code */
+    private static final PhaseTimer ROP_TRANSLATOR_TIMER =
+        new PhaseTimer("ropTranslator");
+
     /**
      * This class is uninstantiable.
      */
@@ -277,7 +293,9 @@ public class CfTranslator {
 
                     advice = DexTranslationAdvice.THE_ONE;
 
+                    long start = ROPPER_TIMER.start();
                     RopMethod rmeth = Ropper.convert(concrete, advice, methods);
+                    ROPPER_TIMER.end(start);
                     RopMethod nonOptRmeth = null;
                     int paramSize;
 
@@ -287,35 +305,84 @@ public class CfTranslator {
                             = thisClass.getClassType().getDescriptor()
                                 + "." + one.getName().getString();
 
-                    if (cfOptions.optimize &&
-                            OptimizerOptions.shouldOptimize(canonicalName)) {
+                    boolean optimize = cfOptions.optimize &&
+                            OptimizerOptions.shouldOptimize(canonicalName);
+                    boolean overLimits = false;
+                    long fallbackStart = 0;
+
+                    if (optimize && exceedsOptimizeLimits(cfOptions, rmeth)) {
+                        optimize = false;
+                        overLimits = true;
+                        fallbackStart = System.nanoTime();
+                    }
+
+                    LocalVariableInfo locals = null;
+                    code = null;
+
+                    if (optimize) {
                         if (DEBUG) {
                             System.err.println("Optimizing " + canonicalName);
                         }
 
+                        /*
+                         * Optimization and the translation of its result
+                         * get a time budget; if they overrun it, the method
+                         * is translated again without optimization.
+                         */
                         nonOptRmeth = rmeth;
-                        rmeth = Optimizer.optimize(rmeth,
-                                paramSize, isStatic, cfOptions.localInfo, advice);
-
-                        if (DEBUG) {
-                            OptimizerOptions.compareOptimizerStep(nonOptRmeth,
-                                    paramSize, isStatic, cfOptions, advice, rmeth);
+                        TimeBudget.start(cfOptions.optimizeTimeBudget);
+                        try {
+                            start = OPTIMIZE_TIMER.start();
+                            rmeth = Optimizer.optimize(rmeth, paramSize,
+                                    isStatic, cfOptions.localInfo, advice);
+                            OPTIMIZE_TIMER.end(start);
+
+                            if (DEBUG) {
+                                OptimizerOptions.compareOptimizerStep(
+                                        nonOptRmeth, paramSize, isStatic,
+                                        cfOptions, advice, rmeth);
+                            }
+
+                            locals = translateLocals(cfOptions, rmeth);
+                            code = translateCode(cfOptions, dexOptions, rmeth,
+                                    locals, paramSize);
+                        } catch (TimeBudgetExceededException ex) {
+                            cfOptions.warn.println("info: not optimizing "
+                                    + canonicalName + " (over the "
+                                    + cfOptions.optimizeTimeBudget
+                                    + " ms time budget)");
+                            CodeStatistics.runningTimeBudgetFallbacks
+                                    .increment();
+                            TimeBudget.recordFallback();
+                            rmeth = nonOptRmeth;
+                            nonOptRmeth = null;
+                        } finally {
+                            TimeBudget.clear();
                         }
 
-                        if (cfOptions.statistics) {
+                        if (cfOptions.statistics && nonOptRmeth != null) {
                             CodeStatistics.updateRopStatistics(
                                     nonOptRmeth, rmeth);
                         }
                     }
 
-                    LocalVariableInfo locals = null;
-
-                    if (cfOptions.localInfo) {
-                        locals = LocalVariableExtractor.extract(rmeth);
+                    if (code == null) {
+                        locals = translateLocals(cfOptions, rmeth);
+                        code = translateCode(cfOptions, dexOptions, rmeth,
+                                locals, paramSize);
                     }
 
-                    code = RopTranslator.translate(rmeth, cfOptions.positionInfo,
-                            locals, paramSize, dexOptions);
+                    if (overLimits) {
+                        long micros = (System.nanoTime() - fallbackStart) / 1000;
+                        cfOptions.warn.println("info: not optimizing "
+                                + canonicalName + " ("
+                                + rmeth.getBlocks().getInstructionCount()
+                                + " insns, "
+                                + rmeth.getBlocks().getRegCount()
+                                + " registers); translated in "
+                                + (micros / 1000) + "." + (micros / 100 % 10)
+                                + " ms");
+                    }
 
                     if (cfOptions.statistics && nonOptRmeth != null) {
                         updateDexStatistics(cfOptions, dexOptions, rmeth, nonOptRmeth, locals,
@@ -371,6 +438,59 @@ public class CfTranslator {
         }
     }
 
+    /**
+     * Extracts the local variable information of a method, if it is to be
+     * kept.
+     *
+     * @param cfOptions {@code non-null;} options for class translation
+     * @param rmeth {@code non-null;} the method
+     * @return {@code null-ok;} the information, or {@code null} if it
+     * isn't to be kept
+     */
+    private static LocalVariableInfo translateLocals(CfOptions cfOptions,
+            RopMethod rmeth) {
+        return cfOptions.localInfo ? LocalVariableExtractor.extract(rmeth)
+                : null;
+    }
+
+    /**
+     * Translates the rop form of a method to dex form.
+     *
+     * @param cfOptions {@code non-null;} options for class translation
+     * @param dexOptions {@code non-null;} options for dex output
+     * @param rmeth {@code non-null;} the method
+     * @param locals {@code null-ok;} local variable information
+     * @param paramSize size, in register units, of the parameters
+     * @return {@code non-null;} the translated code
+     */
+    private static DalvCode translateCode(CfOptions cfOptions,
+            DexOptions dexOptions, RopMethod rmeth, LocalVariableInfo locals,
+            int paramSize) {
+        long start = ROP_TRANSLATOR_TIMER.start();
+        DalvCode code = RopTranslator.translate(rmeth, cfOptions.positionInfo,
+                locals, paramSize, dexOptions);
+        ROP_TRANSLATOR_TIMER.end(start);
+        return code;
+    }
+
+    /**
+     * Checks whether a method is over the size limits for optimization.
+     *
+     * @param cfOptions {@code non-null;} options holding the limits
+     * @param rmeth {@code non-null;} the unoptimized method
+     * @return {@code true} if the method should be left unoptimized
+     */
+    private static boolean exceedsOptimizeLimits(CfOptions cfOptions,
+            RopMethod rmeth) {
+        int maxInsns = cfOptions.optimizeMaxInsns;
+        int maxRegisters = cfOptions.optimizeMaxRegisters;
+
+        return (maxInsns != 0
+                        && rmeth.getBlocks().getInstructionCount() > maxInsns)
+                || (maxRegisters != 0
+                        && rmeth.getBlocks().getRegCount() > maxRegisters);
+    }
+
     /**
      * Helper that updates the dex statistics.
      */
@@ -18,6 +18,8 @@ package com.android.dx.dex.cf;
 
 import com.android.dx.dex.code.DalvCode;
 import com.android.dx.rop.code.RopMethod;
+import com.android.dx.util.InternTable;
+import com.android.dx.util.LongCounter;
 
 import java.io.PrintStream;
 
@@ -29,42 +31,54 @@ public final class CodeStatistics {
     /** set to {@code true} to enable development-time debugging code */
     private static final boolean DEBUG = false;
 
+    /*
+     * The counters are updated by all the translator threads at once, so
+     * they are LongCounters rather than plain ints.
+     */
+
     /**
      * running sum of the number of registers added/removed in
      * SSA form by the optimizer
      */
-    public static int runningDeltaRegisters = 0;
+    public static final LongCounter runningDeltaRegisters = new LongCounter();
 
     /**
      * running sum of the number of insns added/removed in
      * SSA form by the optimizer
      */
-    public static int runningDeltaInsns = 0;
+    public static final LongCounter runningDeltaInsns = new LongCounter();
 
     /** running sum of the total number of Rop insns processed */
-    public static int runningTotalInsns = 0;
+    public static final LongCounter runningTotalInsns = new LongCounter();
 
     /**
      * running sum of the number of dex-form registers added/removed in
      * SSA form by the optimizer. Only valid if args.statistics is true.
      */
-    public static int dexRunningDeltaRegisters = 0;
+    public static final LongCounter dexRunningDeltaRegisters = new LongCounter();
 
     /**
      * running sum of the number of dex-form insns (actually code
      * units) added/removed in SSA form by the optimizer. Only valid
      * if args.statistics is true.
      */
-    public static int dexRunningDeltaInsns = 0;
+    public static final LongCounter dexRunningDeltaInsns = new LongCounter();
 
     /**
      * running sum of the total number of dex insns (actually code
      * units) processed
      */
-    public static int dexRunningTotalInsns = 0;
+    public static final LongCounter dexRunningTotalInsns = new LongCounter();
 
     /** running sum of original class bytecode bytes */
-    public static int runningOriginalBytes = 0;
+    public static final LongCounter runningOriginalBytes = new LongCounter();
+
+    /**
+     * running count of methods translated without optimization because
+     * optimizing them overran the time budget
+     */
+    public static final LongCounter runningTimeBudgetFallbacks =
+        new LongCounter();
 
     /**
      * This class is uninstantiable.
@@ -79,7 +93,7 @@ public final class CodeStatistics {
      * @param count {@code >= 0;} the number of bytes to add
      */
     public static void updateOriginalByteCount(int count) {
-        runningOriginalBytes += count;
+        runningOriginalBytes.add(count);
     }
 
     /**
@@ -100,15 +114,13 @@ public final class CodeStatistics {
             );
         }
 
-        dexRunningDeltaInsns
-            += (code.getInsns().codeSize()
+        dexRunningDeltaInsns.add(code.getInsns().codeSize()
                 - nonOptCode.getInsns().codeSize());
 
-        dexRunningDeltaRegisters
-            += (code.getInsns().getRegistersSize()
+        dexRunningDeltaRegisters.add(code.getInsns().getRegistersSize()
                 - nonOptCode.getInsns().getRegistersSize());
 
-        dexRunningTotalInsns += code.getInsns().codeSize();
+        dexRunningTotalInsns.add(code.getInsns().codeSize());
     }
 
     /**
@@ -134,13 +146,30 @@ public final class CodeStatistics {
         int newCountInsns
                 = rmeth.getBlocks().getEffectiveInstructionCount();
 
-        runningDeltaInsns
-            += (newCountInsns - oldCountInsns);
+        runningDeltaInsns.add(newCountInsns - oldCountInsns);
+
+        runningDeltaRegisters.add(rmeth.getBlocks().getRegCount() - oldCountRegs);
 
-        runningDeltaRegisters
-            += (rmeth.getBlocks().getRegCount() - oldCountRegs);
+        runningTotalInsns.add(newCountInsns);
+    }
 
-        runningTotalInsns += newCountInsns;
+    /**
+     * Resets the collected statistics, including the intern table hit and
+     * miss counts, to start a fresh run.
+     */
+    public static void clear() {
+        runningDeltaRegisters.reset();
+        runningDeltaInsns.reset();
+        runningTotalInsns.reset();
+        dexRunningDeltaRegisters.reset();
+        dexRunningDeltaInsns.reset();
+        dexRunningTotalInsns.reset();
+        runningOriginalBytes.reset();
+        runningTimeBudgetFallbacks.reset();
+
+        for (InternTable<?, ?> table : InternTable.getAll()) {
+            table.resetCounters();
+        }
     }
 
     /**
@@ -149,24 +178,38 @@ public final class CodeStatistics {
      * @param out {@code non-null;} where to output to
      */
     public static void dumpStatistics(PrintStream out) {
+        long deltaInsns = runningDeltaInsns.get();
+        long totalInsns = runningTotalInsns.get();
+        long dexDeltaInsns = dexRunningDeltaInsns.get();
+        long dexTotalInsns = dexRunningTotalInsns.get();
+
         out.printf("Optimizer Delta Rop Insns: %d total: %d "
                 + "(%.2f%%) Delta Registers: %d\n",
-                runningDeltaInsns,
-                runningTotalInsns,
-                (100.0 * (((float) runningDeltaInsns)
-                        / (runningTotalInsns + Math.abs(runningDeltaInsns)))),
-                runningDeltaRegisters);
+                deltaInsns,
+                totalInsns,
+                (100.0 * (((float) deltaInsns)
+                        / (totalInsns + Math.abs(deltaInsns)))),
+                runningDeltaRegisters.get());
 
         out.printf("Optimizer Delta Dex Insns: Insns: %d total: %d "
                 + "(%.2f%%) Delta Registers: %d\n",
-                dexRunningDeltaInsns,
-                dexRunningTotalInsns,
-                (100.0 * (((float) dexRunningDeltaInsns)
-                        / (dexRunningTotalInsns
-                                + Math.abs(dexRunningDeltaInsns)))),
-                dexRunningDeltaRegisters);
+                dexDeltaInsns,
+                dexTotalInsns,
+                (100.0 * (((float) dexDeltaInsns)
+                        / (dexTotalInsns
+                                + Math.abs(dexDeltaInsns)))),
+                dexRunningDeltaRegisters.get());
 
         out.printf("Original bytecode byte count: %d\n",
-                runningOriginalBytes);
+                runningOriginalBytes.get());
+
+        out.printf("Methods over the optimization time budget: %d\n",
+                runningTimeBudgetFallbacks.get());
+
+        for (InternTable<?, ?> table : InternTable.getAll()) {
+            out.printf("Intern table %s: size: %d hits: %d misses: %d\n",
+                    table.getName(), table.size(), table.getHits(),
+                    table.getMisses());
+        }
     }
 }
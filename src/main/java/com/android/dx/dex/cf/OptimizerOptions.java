@@ -86,6 +86,17 @@ public class OptimizerOptions {
         optimizeListsLoaded = true;
     }
 
+    /**
+     * Forgets any loaded optimize/don't optimize lists, so that the next
+     * call to {@link #loadOptimizeLists} loads them afresh. Only valid
+     * when no translation is in progress.
+     */
+    public static void clearOptimizeLists() {
+        optimizeList = null;
+        dontOptimizeList = null;
+        optimizeListsLoaded = false;
+    }
+
     /**
      * Loads a list of newline-separated strings into a new HashSet and returns
      * the HashSet.
@@ -39,6 +39,7 @@ import com.android.dx.rop.code.SourcePosition;
 import com.android.dx.rop.code.SwitchInsn;
 import com.android.dx.rop.code.ThrowingInsn;
 import com.android.dx.util.Bits;
+import com.android.dx.util.TimeBudget;
 
 import java.util.ArrayList;
 
@@ -231,6 +232,7 @@ public final class RopTranslator {
         for (int i = 0; i < len; i++) {
             int nextI = i + 1;
             int nextLabel = (nextI == order.length) ? -1 : order[nextI];
+            TimeBudget.check();
             outputBlock(blocks.labelToBlock(order[i]), nextLabel);
         }
     }
@@ -25,7 +25,6 @@ import com.android.dx.util.Hex;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Class definitions list section of a {@code .dex} file.
@@ -35,7 +34,7 @@ public final class ClassDefsSection extends UniformItemSection {
      * {@code non-null;} map from type constants for classes to {@link
      * ClassDefItem} instances that define those classes
      */
-    private final TreeMap<Type, ClassDefItem> classDefs;
+    private final ConcurrentItemMap<Type, ClassDefItem> classDefs;
 
     /** {@code null-ok;} ordered list of classes; set in {@link #orderItems} */
     private ArrayList<ClassDefItem> orderedDefs;
@@ -48,7 +47,7 @@ public final class ClassDefsSection extends UniformItemSection {
     public ClassDefsSection(DexFile file) {
         super("class_defs", file, 4);
 
-        classDefs = new TreeMap<Type, ClassDefItem>();
+        classDefs = new ConcurrentItemMap<Type, ClassDefItem>();
         orderedDefs = null;
     }
 
@@ -119,11 +118,9 @@ public final class ClassDefsSection extends UniformItemSection {
 
         throwIfPrepared();
 
-        if (classDefs.get(type) != null) {
+        if (classDefs.putIfAbsent(type, clazz) != clazz) {
             throw new IllegalArgumentException("already added: " + type);
         }
-
-        classDefs.put(type, clazz);
     }
 
     /** {@inheritDoc} */
@@ -140,8 +137,8 @@ public final class ClassDefsSection extends UniformItemSection {
          * already been assigned by the time this (top-level)
          * iteration reaches them.
          */
-        for (Type type : classDefs.keySet()) {
-            idx = orderItems0(type, idx, sz - idx);
+        for (ClassDefItem c : classDefs.sort()) {
+            idx = orderItems0(c.getThisClass().getClassType(), idx, sz - idx);
         }
     }
 
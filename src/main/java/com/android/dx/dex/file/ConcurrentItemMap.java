@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2007 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.dex.file;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map from keys to the items of a section, which any number of threads
+ * may add to at once. Items are kept in a {@link ConcurrentHashMap}, which
+ * locks per bucket rather than for the whole map, and are only sorted by
+ * key when the section orders them, so the order they were added in
+ * doesn't matter.
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the items
+ */
+final class ConcurrentItemMap<K extends Comparable<? super K>, V> {
+    /** {@code non-null;} the items, by key */
+    private final ConcurrentHashMap<K, V> items;
+
+    /** {@code null-ok;} the items in key order, once {@link #sort} ran */
+    private volatile List<V> sorted;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public ConcurrentItemMap() {
+        items = new ConcurrentHashMap<K, V>(256, 0.75f,
+                Runtime.getRuntime().availableProcessors());
+        sorted = null;
+    }
+
+    /**
+     * Gets the item for the given key.
+     *
+     * @param key {@code non-null;} the key
+     * @return {@code null-ok;} the item, or {@code null} if there is none
+     */
+    public V get(K key) {
+        return items.get(key);
+    }
+
+    /**
+     * Adds an item, unless there already is one for its key.
+     *
+     * @param key {@code non-null;} the key
+     * @param item {@code non-null;} the item
+     * @return {@code non-null;} the item for the key, which is either
+     * {@code item} or the one that was there already
+     */
+    public V putIfAbsent(K key, V item) {
+        if (sorted != null) {
+            throw new IllegalStateException("already sorted");
+        }
+
+        V already = items.putIfAbsent(key, item);
+        return (already != null) ? already : item;
+    }
+
+    /**
+     * Gets the number of items.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Gets the items; in key order if {@link #sort} ran, and otherwise in
+     * no particular order.
+     *
+     * @return {@code non-null;} the items
+     */
+    public Collection<V> values() {
+        List<V> result = sorted;
+        return (result != null) ? result : items.values();
+    }
+
+    /**
+     * Sorts the items by key. No items may be added afterwards.
+     *
+     * @return {@code non-null;} the items in key order
+     */
+    public List<V> sort() {
+        if (sorted == null) {
+            ArrayList<Map.Entry<K, V>> entries =
+                new ArrayList<Map.Entry<K, V>>(items.entrySet());
+
+            Collections.sort(entries, new Comparator<Map.Entry<K, V>>() {
+                public int compare(Map.Entry<K, V> a, Map.Entry<K, V> b) {
+                    return a.getKey().compareTo(b.getKey());
+                }
+            });
+
+            ArrayList<V> values = new ArrayList<V>(entries.size());
+            for (Map.Entry<K, V> entry : entries) {
+                values.add(entry.getValue());
+            }
+
+            sorted = Collections.unmodifiableList(values);
+        }
+
+        return sorted;
+    }
+}
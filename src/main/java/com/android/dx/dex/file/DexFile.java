@@ -16,6 +16,7 @@
 
 package com.android.dx.dex.file;
 
+import com.android.dex.DexHasher;
 import com.android.dex.util.ExceptionWithContext;
 import com.android.dx.dex.DexOptions;
 import com.android.dx.rop.cst.Constant;
@@ -25,15 +26,17 @@ import com.android.dx.rop.cst.CstFieldRef;
 import com.android.dx.rop.cst.CstString;
 import com.android.dx.rop.cst.CstType;
 import com.android.dx.rop.type.Type;
+import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.ByteArrayAnnotatedOutput;
+import com.android.dx.util.ByteChannelOutput;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
-import java.security.DigestException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.zip.Adler32;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * Representation of an entire {@code .dex} (Dalvik EXecutable)
@@ -152,7 +155,9 @@ public final class DexFile {
 
     /**
      * Adds a class to this instance. It is illegal to attempt to add more
-     * than one class with the same name.
+     * than one class with the same name. Classes may be translated into
+     * and added to an instance from several threads at once; the order
+     * they are added in doesn't affect the output.
      *
      * @param clazz {@code non-null;} the class to add
      */
@@ -199,6 +204,49 @@ public final class DexFile {
         }
     }
 
+    /**
+     * Writes the contents of this instance as a {@code .dex} file to the
+     * given channel, starting at its current position. Unlike the other
+     * output methods, this doesn't hold the whole file in memory: the
+     * sections are streamed out through a small buffer while the signature
+     * and checksum are computed, and the header is patched at the end.
+     *
+     * @param out {@code non-null;} where to write to; on return it is
+     * positioned just past the written file
+     */
+    public void writeTo(SeekableByteChannel out) throws IOException {
+        place();
+
+        long start = out.position();
+        HashingChannel hashing = new HashingChannel(out);
+        ByteChannelOutput channelOut = new ByteChannelOutput(hashing);
+
+        try {
+            writeSections(channelOut);
+            channelOut.flush();
+        } catch (ExceptionWithContext ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw ex;
+        }
+
+        long end = out.position();
+        byte[] signature = hashing.hasher.getSignature();
+
+        ByteBuffer patch = ByteBuffer.allocate(4 + signature.length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+        patch.putInt(hashing.hasher.getChecksum());
+        patch.put(signature);
+        patch.flip();
+
+        out.position(start + DexHasher.CHECKSUM_OFFSET);
+        while (patch.hasRemaining()) {
+            out.write(patch);
+        }
+        out.position(end);
+    }
+
     /**
      * Returns the contents of this instance as a {@code .dex} file,
      * in {@code byte[]} form.
@@ -490,6 +538,38 @@ public final class DexFile {
      */
     private ByteArrayAnnotatedOutput toDex0(boolean annotate,
             boolean verbose) {
+        place();
+
+        // Write out all the sections.
+
+        byte[] barr = new byte[fileSize];
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+
+        if (annotate) {
+            out.enableAnnotations(dumpWidth, verbose);
+        }
+
+        writeSections(out);
+
+        // Perform final bookkeeping.
+
+        calcHashes(barr);
+
+        if (annotate) {
+            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
+                    "\nmethod code index:\n\n");
+            getStatistics().writeAnnotation(out);
+            out.finishAnnotating();
+        }
+
+        return out;
+    }
+
+    /**
+     * Prepares all the sections and places them and their items within
+     * the file, which sets {@link #fileSize}.
+     */
+    private void place() {
         /*
          * The following is ordered so that the prepare() calls which
          * add items happen before the calls to the sections that get
@@ -547,15 +627,17 @@ public final class DexFile {
             }
         }
 
-        // Write out all the sections.
-
         fileSize = offset;
-        byte[] barr = new byte[fileSize];
-        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(barr);
+    }
 
-        if (annotate) {
-            out.enableAnnotations(dumpWidth, verbose);
-        }
+    /**
+     * Writes out all the sections, which must have been placed. On return,
+     * everything but the checksum and signature has been written.
+     *
+     * @param out {@code non-null;} where to write to
+     */
+    private void writeSections(AnnotatedOutput out) {
+        int count = sections.length;
 
         for (int i = 0; i < count; i++) {
             try {
@@ -582,20 +664,6 @@ public final class DexFile {
         if (out.getCursor() != fileSize) {
             throw new RuntimeException("foreshortened write");
         }
-
-        // Perform final bookkeeping.
-
-        calcSignature(barr);
-        calcChecksum(barr);
-
-        if (annotate) {
-            wordData.writeIndexAnnotation(out, ItemType.TYPE_CODE_ITEM,
-                    "\nmethod code index:\n\n");
-            getStatistics().writeAnnotation(out);
-            out.finishAnnotating();
-        }
-
-        return out;
     }
 
     /**
@@ -614,49 +682,68 @@ public final class DexFile {
     }
 
     /**
-     * Calculates the signature for the {@code .dex} file in the
-     * given array, and modify the array to contain it.
+     * Calculates the signature and the checksum for the {@code .dex} file
+     * in the given array, in one pass, and modify the array to contain
+     * them.
      *
      * @param bytes {@code non-null;} the bytes of the file
      */
-    private static void calcSignature(byte[] bytes) {
-        MessageDigest md;
+    private static void calcHashes(byte[] bytes) {
+        DexHasher hasher = new DexHasher();
+        hasher.update(bytes, DexHasher.HASHED_START,
+                bytes.length - DexHasher.HASHED_START);
 
-        try {
-            md = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException ex) {
-            throw new RuntimeException(ex);
-        }
+        byte[] signature = hasher.getSignature();
+        System.arraycopy(signature, 0, bytes, DexHasher.SIGNATURE_OFFSET,
+                signature.length);
 
-        md.update(bytes, 32, bytes.length - 32);
-
-        try {
-            int amt = md.digest(bytes, 12, 20);
-            if (amt != 20) {
-                throw new RuntimeException("unexpected digest write: " + amt +
-                                           " bytes");
-            }
-        } catch (DigestException ex) {
-            throw new RuntimeException(ex);
-        }
+        int sum = hasher.getChecksum();
+        bytes[8]  = (byte) sum;
+        bytes[9]  = (byte) (sum >> 8);
+        bytes[10] = (byte) (sum >> 16);
+        bytes[11] = (byte) (sum >> 24);
     }
 
     /**
-     * Calculates the checksum for the {@code .dex} file in the
-     * given array, and modify the array to contain it.
-     *
-     * @param bytes {@code non-null;} the bytes of the file
+     * Channel wrapper which passes everything written from
+     * {@link DexHasher#HASHED_START} on to a {@link DexHasher}.
      */
-    private static void calcChecksum(byte[] bytes) {
-        Adler32 a32 = new Adler32();
+    private static final class HashingChannel implements WritableByteChannel {
+        /** {@code non-null;} where the data goes */
+        private final WritableByteChannel channel;
 
-        a32.update(bytes, 12, bytes.length - 12);
+        /** {@code non-null;} the signature and checksum */
+        private final DexHasher hasher = new DexHasher();
 
-        int sum = (int) a32.getValue();
+        /** {@code >= 0;} number of bytes written so far */
+        private long written;
 
-        bytes[8]  = (byte) sum;
-        bytes[9]  = (byte) (sum >> 8);
-        bytes[10] = (byte) (sum >> 16);
-        bytes[11] = (byte) (sum >> 24);
+        public HashingChannel(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        /** {@inheritDoc} */
+        public int write(ByteBuffer src) throws IOException {
+            // ByteChannelOutput always hands over array-backed buffers.
+            byte[] array = src.array();
+            int position = src.arrayOffset() + src.position();
+            int count = channel.write(src);
+            int skip = (int) Math.max(0,
+                    Math.min(count, DexHasher.HASHED_START - written));
+
+            hasher.update(array, position + skip, count - skip);
+            written += count;
+            return count;
+        }
+
+        /** {@inheritDoc} */
+        public boolean isOpen() {
+            return channel.isOpen();
+        }
+
+        /** {@inheritDoc} */
+        public void close() throws IOException {
+            channel.close();
+        }
     }
 }
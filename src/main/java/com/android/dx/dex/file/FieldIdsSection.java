@@ -22,7 +22,6 @@ import com.android.dx.rop.cst.CstFieldRef;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Field refs list section of a {@code .dex} file.
@@ -32,7 +31,7 @@ public final class FieldIdsSection extends MemberIdsSection {
      * {@code non-null;} map from field constants to {@link
      * FieldIdItem} instances
      */
-    private final TreeMap<CstFieldRef, FieldIdItem> fieldIds;
+    private final ConcurrentItemMap<CstFieldRef, FieldIdItem> fieldIds;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -42,7 +41,7 @@ public final class FieldIdsSection extends MemberIdsSection {
     public FieldIdsSection(DexFile file) {
         super("field_ids", file);
 
-        fieldIds = new TreeMap<CstFieldRef, FieldIdItem>();
+        fieldIds = new ConcurrentItemMap<CstFieldRef, FieldIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -95,7 +94,7 @@ public final class FieldIdsSection extends MemberIdsSection {
      * @param field {@code non-null;} the reference to intern
      * @return {@code non-null;} the interned reference
      */
-    public synchronized FieldIdItem intern(CstFieldRef field) {
+    public FieldIdItem intern(CstFieldRef field) {
         if (field == null) {
             throw new NullPointerException("field == null");
         }
@@ -105,8 +104,7 @@ public final class FieldIdsSection extends MemberIdsSection {
         FieldIdItem result = fieldIds.get(field);
 
         if (result == null) {
-            result = new FieldIdItem(field);
-            fieldIds.put(field, result);
+            result = fieldIds.putIfAbsent(field, new FieldIdItem(field));
         }
 
         return result;
@@ -134,4 +132,11 @@ public final class FieldIdsSection extends MemberIdsSection {
 
         return item.getIndex();
     }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void orderItems() {
+        fieldIds.sort();
+        super.orderItems();
+    }
 }
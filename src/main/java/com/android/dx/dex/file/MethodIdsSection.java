@@ -22,7 +22,6 @@ import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Method refs list section of a {@code .dex} file.
@@ -32,7 +31,7 @@ public final class MethodIdsSection extends MemberIdsSection {
      * {@code non-null;} map from method constants to {@link
      * MethodIdItem} instances
      */
-    private final TreeMap<CstBaseMethodRef, MethodIdItem> methodIds;
+    private final ConcurrentItemMap<CstBaseMethodRef, MethodIdItem> methodIds;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -42,7 +41,7 @@ public final class MethodIdsSection extends MemberIdsSection {
     public MethodIdsSection(DexFile file) {
         super("method_ids", file);
 
-        methodIds = new TreeMap<CstBaseMethodRef, MethodIdItem>();
+        methodIds = new ConcurrentItemMap<CstBaseMethodRef, MethodIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -95,7 +94,7 @@ public final class MethodIdsSection extends MemberIdsSection {
      * @param method {@code non-null;} the reference to intern
      * @return {@code non-null;} the interned reference
      */
-    public synchronized MethodIdItem intern(CstBaseMethodRef method) {
+    public MethodIdItem intern(CstBaseMethodRef method) {
         if (method == null) {
             throw new NullPointerException("method == null");
         }
@@ -105,8 +104,7 @@ public final class MethodIdsSection extends MemberIdsSection {
         MethodIdItem result = methodIds.get(method);
 
         if (result == null) {
-            result = new MethodIdItem(method);
-            methodIds.put(method, result);
+            result = methodIds.putIfAbsent(method, new MethodIdItem(method));
         }
 
         return result;
@@ -134,4 +132,11 @@ public final class MethodIdsSection extends MemberIdsSection {
 
         return item.getIndex();
     }
+
+    /** {@inheritDoc} */
+    @Override
+    protected void orderItems() {
+        methodIds.sort();
+        super.orderItems();
+    }
 }
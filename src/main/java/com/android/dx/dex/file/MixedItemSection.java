@@ -25,10 +25,10 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A section of a {@code .dex} file which consists of a sequence of
@@ -37,6 +37,10 @@ import java.util.TreeMap;
  *
  * <b>Note:</b> It is invalid for an item in an instance of this class to
  * have a larger alignment requirement than the alignment of this instance.
+ *
+ * <p>Items may be interned from several threads at once. The output only
+ * doesn't depend on the order they were interned in when the section
+ * sorts by {@link SortType#INSTANCE}.</p>
  */
 public final class MixedItemSection extends Section {
     static enum SortType {
@@ -64,7 +68,7 @@ public final class MixedItemSection extends Section {
     private final ArrayList<OffsettedItem> items;
 
     /** {@code non-null;} items that have been explicitly interned */
-    private final HashMap<OffsettedItem, OffsettedItem> interns;
+    private final ConcurrentHashMap<OffsettedItem, OffsettedItem> interns;
 
     /** {@code non-null;} how to sort the items */
     private final SortType sort;
@@ -90,7 +94,7 @@ public final class MixedItemSection extends Section {
         super(name, file, alignment);
 
         this.items = new ArrayList<OffsettedItem>(100);
-        this.interns = new HashMap<OffsettedItem, OffsettedItem>(100);
+        this.interns = new ConcurrentHashMap<OffsettedItem, OffsettedItem>(100);
         this.sort = sort;
         this.writeSize = -1;
     }
@@ -179,7 +183,9 @@ public final class MixedItemSection extends Section {
             throw new NullPointerException("item == null");
         }
 
-        items.add(item);
+        synchronized (items) {
+            items.add(item);
+        }
     }
 
     /**
@@ -190,18 +196,21 @@ public final class MixedItemSection extends Section {
      * @param item {@code non-null;} the item to intern
      * @return {@code non-null;} the equivalent interned instance
      */
-    public synchronized <T extends OffsettedItem> T intern(T item) {
+    public <T extends OffsettedItem> T intern(T item) {
         throwIfPrepared();
 
         OffsettedItem result = interns.get(item);
 
-        if (result != null) {
-            return (T) result;
+        if (result == null) {
+            result = interns.putIfAbsent(item, item);
+
+            if (result == null) {
+                add(item);
+                return item;
+            }
         }
 
-        add(item);
-        interns.put(item, item);
-        return item;
+        return (T) result;
     }
 
     /**
@@ -22,7 +22,6 @@ import com.android.dx.util.AnnotatedOutput;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Proto (method prototype) identifiers list section of a
@@ -32,7 +31,7 @@ public final class ProtoIdsSection extends UniformItemSection {
     /**
      * {@code non-null;} map from method prototypes to {@link ProtoIdItem} instances
      */
-    private final TreeMap<Prototype, ProtoIdItem> protoIds;
+    private final ConcurrentItemMap<Prototype, ProtoIdItem> protoIds;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -42,7 +41,7 @@ public final class ProtoIdsSection extends UniformItemSection {
     public ProtoIdsSection(DexFile file) {
         super("proto_ids", file, 4);
 
-        protoIds = new TreeMap<Prototype, ProtoIdItem>();
+        protoIds = new ConcurrentItemMap<Prototype, ProtoIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -87,7 +86,7 @@ public final class ProtoIdsSection extends UniformItemSection {
      * @param prototype {@code non-null;} the prototype to intern
      * @return {@code non-null;} the interned reference
      */
-    public synchronized ProtoIdItem intern(Prototype prototype) {
+    public ProtoIdItem intern(Prototype prototype) {
         if (prototype == null) {
             throw new NullPointerException("prototype == null");
         }
@@ -97,8 +96,8 @@ public final class ProtoIdsSection extends UniformItemSection {
         ProtoIdItem result = protoIds.get(prototype);
 
         if (result == null) {
-            result = new ProtoIdItem(prototype);
-            protoIds.put(prototype, result);
+            result = protoIds.putIfAbsent(prototype,
+                    new ProtoIdItem(prototype));
         }
 
         return result;
@@ -132,8 +131,8 @@ public final class ProtoIdsSection extends UniformItemSection {
     protected void orderItems() {
         int idx = 0;
 
-        for (Object i : items()) {
-            ((ProtoIdItem) i).setIndex(idx);
+        for (ProtoIdItem i : protoIds.sort()) {
+            i.setIndex(idx);
             idx++;
         }
     }
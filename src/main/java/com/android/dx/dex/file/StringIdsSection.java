@@ -23,7 +23,6 @@ import com.android.dx.rop.cst.CstString;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Strings list section of a {@code .dex} file.
@@ -34,7 +33,7 @@ public final class StringIdsSection
      * {@code non-null;} map from string constants to {@link
      * StringIdItem} instances
      */
-    private final TreeMap<CstString, StringIdItem> strings;
+    private final ConcurrentItemMap<CstString, StringIdItem> strings;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -44,7 +43,7 @@ public final class StringIdsSection
     public StringIdsSection(DexFile file) {
         super("string_ids", file, 4);
 
-        strings = new TreeMap<CstString, StringIdItem>();
+        strings = new ConcurrentItemMap<CstString, StringIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -118,7 +117,7 @@ public final class StringIdsSection
      * @param string {@code non-null;} the string to intern
      * @return {@code non-null;} the interned string
      */
-    public synchronized StringIdItem intern(StringIdItem string) {
+    public StringIdItem intern(StringIdItem string) {
         if (string == null) {
             throw new NullPointerException("string == null");
         }
@@ -132,8 +131,7 @@ public final class StringIdsSection
             return already;
         }
 
-        strings.put(value, string);
-        return string;
+        return strings.putIfAbsent(value, string);
     }
 
     /**
@@ -141,7 +139,7 @@ public final class StringIdsSection
      *
      * @param nat {@code non-null;} the name-and-type
      */
-    public synchronized void intern(CstNat nat) {
+    public void intern(CstNat nat) {
         intern(nat.getName());
         intern(nat.getDescriptor());
     }
@@ -174,7 +172,7 @@ public final class StringIdsSection
     protected void orderItems() {
         int idx = 0;
 
-        for (StringIdItem s : strings.values()) {
+        for (StringIdItem s : strings.sort()) {
             s.setIndex(idx);
             idx++;
         }
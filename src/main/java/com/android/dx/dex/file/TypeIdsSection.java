@@ -26,7 +26,6 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.util.Hex;
 
 import java.util.Collection;
-import java.util.TreeMap;
 
 /**
  * Type identifiers list section of a {@code .dex} file.
@@ -35,7 +34,7 @@ public final class TypeIdsSection extends UniformItemSection {
     /**
      * {@code non-null;} map from types to {@link TypeIdItem} instances
      */
-    private final TreeMap<Type, TypeIdItem> typeIds;
+    private final ConcurrentItemMap<Type, TypeIdItem> typeIds;
 
     /**
      * Constructs an instance. The file offset is initially unknown.
@@ -45,7 +44,7 @@ public final class TypeIdsSection extends UniformItemSection {
     public TypeIdsSection(DexFile file) {
         super("type_ids", file, 4);
 
-        typeIds = new TreeMap<Type, TypeIdItem>();
+        typeIds = new ConcurrentItemMap<Type, TypeIdItem>();
     }
 
     /** {@inheritDoc} */
@@ -105,7 +104,7 @@ public final class TypeIdsSection extends UniformItemSection {
      * @param type {@code non-null;} the type to intern
      * @return {@code non-null;} the interned reference
      */
-    public synchronized TypeIdItem intern(Type type) {
+    public TypeIdItem intern(Type type) {
         if (type == null) {
             throw new NullPointerException("type == null");
         }
@@ -115,8 +114,8 @@ public final class TypeIdsSection extends UniformItemSection {
         TypeIdItem result = typeIds.get(type);
 
         if (result == null) {
-            result = new TypeIdItem(new CstType(type));
-            typeIds.put(type, result);
+            result = typeIds.putIfAbsent(type,
+                    new TypeIdItem(new CstType(type)));
         }
 
         return result;
@@ -128,7 +127,7 @@ public final class TypeIdsSection extends UniformItemSection {
      * @param type {@code non-null;} the type to intern
      * @return {@code non-null;} the interned reference
      */
-    public synchronized TypeIdItem intern(CstType type) {
+    public TypeIdItem intern(CstType type) {
         if (type == null) {
             throw new NullPointerException("type == null");
         }
@@ -139,8 +138,7 @@ public final class TypeIdsSection extends UniformItemSection {
         TypeIdItem result = typeIds.get(typePerSe);
 
         if (result == null) {
-            result = new TypeIdItem(type);
-            typeIds.put(typePerSe, result);
+            result = typeIds.putIfAbsent(typePerSe, new TypeIdItem(type));
         }
 
         return result;
@@ -189,8 +187,8 @@ public final class TypeIdsSection extends UniformItemSection {
     protected void orderItems() {
         int idx = 0;
 
-        for (Object i : items()) {
-            ((TypeIdItem) i).setIndex(idx);
+        for (TypeIdItem i : typeIds.sort()) {
+            i.setIndex(idx);
             idx++;
         }
     }
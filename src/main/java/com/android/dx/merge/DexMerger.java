@@ -29,10 +29,16 @@ import com.android.dex.SizeOf;
 import com.android.dex.TableOfContents;
 import com.android.dex.TypeList;
 import com.android.dex.MethodId;
+import com.android.dx.util.ByteArrayAnnotatedOutput;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Combine two dex files into one.
@@ -84,6 +90,30 @@ public final class DexMerger {
     /** minimum number of wasted bytes before it's worthwhile to compact the result */
     private int compactWasteThreshold = 1024 * 1024; // 1MiB
 
+    /**
+     * maximum number of classes translated ahead of the class currently being
+     * written when merging in parallel; bounds the memory held by translated
+     * but not yet written code
+     */
+    private static final int MAX_CLASSES_IN_FLIGHT = 512;
+
+    /** whether to print a summary of the merge to {@code System.out} */
+    private boolean verbose = true;
+
+    /** number of threads to translate class bodies with, if no executor is set */
+    private int threadCount = 1;
+
+    /** {@code null-ok;} executor to translate class bodies on */
+    private ExecutorService executor;
+
+    /** per-thread transformers for class bodies translated on {@link #executor} */
+    private final ThreadLocal<InstructionTransformer> threadInstructionTransformer =
+            new ThreadLocal<InstructionTransformer>() {
+        @Override protected InstructionTransformer initialValue() {
+            return new InstructionTransformer();
+        }
+    };
+
     public DexMerger(Dex[] dexes, CollisionPolicy collisionPolicy)
             throws IOException {
         this(dexes, collisionPolicy, new WriterSizes(dexes));
@@ -152,6 +182,44 @@ public final class DexMerger {
         this.compactWasteThreshold = compactWasteThreshold;
     }
 
+    /**
+     * Sets whether {@link #merge} prints a summary of the inputs and the
+     * result. This is on by default.
+     *
+     * @param verbose whether to print the summary
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Sets the number of threads used to translate class bodies (class data,
+     * code and debug info) once all ids are merged. A thread pool of this
+     * size is created for the duration of {@link #merge}. The merged dex is
+     * byte-for-byte identical regardless of the thread count.
+     *
+     * @param threadCount {@code >= 1;} the number of threads
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Sets the executor used to translate class bodies, taking precedence
+     * over {@link #setThreadCount}. The executor isn't shut down by this
+     * merger. The merged dex is byte-for-byte identical to a single-threaded
+     * merge.
+     *
+     * @param executor {@code null-ok;} the executor, or {@code null} to
+     *     translate on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     private Dex mergeDexes() throws IOException {
         mergeStringIds();
         mergeTypeIds();
@@ -171,9 +239,7 @@ public final class DexMerger {
         contentsOut.writeHeader(headerOut);
         contentsOut.writeMap(mapListOut);
 
-        // generate and write the hashes
-        dexOut.writeHashes();
-
+        // The hashes are only generated for the final result; see merge().
         return dexOut;
     }
 
@@ -185,6 +251,22 @@ public final class DexMerger {
         }
 
         long start = System.nanoTime();
+        ExecutorService ownedExecutor = null;
+        if (executor == null && threadCount > 1) {
+            ownedExecutor = Executors.newFixedThreadPool(threadCount);
+            executor = ownedExecutor;
+        }
+        try {
+            return merge(start);
+        } finally {
+            if (ownedExecutor != null) {
+                ownedExecutor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    private Dex merge(long start) throws IOException {
         Dex result = mergeDexes();
 
         /*
@@ -197,11 +279,21 @@ public final class DexMerger {
         if (wastedByteCount >  + compactWasteThreshold) {
             DexMerger compacter = new DexMerger(
                     new Dex[] {dexOut, new Dex(0)}, CollisionPolicy.FAIL, compactedSizes);
+            compacter.executor = executor;
             result = compacter.mergeDexes();
-            System.out.printf("Result compacted from %.1fKiB to %.1fKiB to save %.1fKiB%n",
-                    dexOut.getLength() / 1024f,
-                    result.getLength() / 1024f,
-                    wastedByteCount / 1024f);
+            if (verbose) {
+                System.out.printf("Result compacted from %.1fKiB to %.1fKiB to save %.1fKiB%n",
+                        dexOut.getLength() / 1024f,
+                        result.getLength() / 1024f,
+                        wastedByteCount / 1024f);
+            }
+        }
+
+        // generate and write the hashes, once the output is final
+        result.writeHashes();
+
+        if (!verbose) {
+            return result;
         }
 
         long elapsed = System.nanoTime() - start;
@@ -518,9 +610,126 @@ public final class DexMerger {
         contentsOut.classDefs.off = idsDefsOut.getPosition();
         contentsOut.classDefs.size = types.length;
 
-        for (SortableType type : types) {
-            Dex in = type.getDex();
-            transformClassDef(in, type.getClassDef(), type.getIndexMap());
+        if (executor == null) {
+            for (SortableType type : types) {
+                transformClassDef(type.getClassDef(), type.getIndexMap(),
+                        translateClass(type, instructionTransformer));
+            }
+        } else {
+            mergeClassDefsInParallel(types);
+        }
+    }
+
+    /**
+     * Translates class bodies on {@link #executor} while writing them out in
+     * the order of {@code types}. Only the offset-independent translation runs
+     * concurrently; every byte of the output is written by this thread, in
+     * the same order as a single-threaded merge.
+     */
+    private void mergeClassDefsInParallel(SortableType[] types) {
+        ArrayDeque<Future<TranslatedClass>> inFlight = new ArrayDeque<Future<TranslatedClass>>();
+        int submitted = 0;
+        try {
+            for (SortableType type : types) {
+                while (submitted < types.length && inFlight.size() < MAX_CLASSES_IN_FLIGHT) {
+                    final SortableType toTranslate = types[submitted++];
+                    inFlight.add(executor.submit(new Callable<TranslatedClass>() {
+                        @Override public TranslatedClass call() {
+                            return translateClass(toTranslate, threadInstructionTransformer.get());
+                        }
+                    }));
+                }
+                transformClassDef(type.getClassDef(), type.getIndexMap(),
+                        inFlight.removeFirst().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DexException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new DexException(cause);
+        } finally {
+            for (Future<TranslatedClass> future : inFlight) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Reads the class data and code of {@code type} and adjusts the indices in
+     * its instructions and debug info. This doesn't depend on where the class
+     * will be written, so it is safe to run concurrently for different
+     * classes once the index maps are final.
+     *
+     * @return {@code null-ok;} the translated class, or null if the class has
+     *     no class data
+     */
+    private TranslatedClass translateClass(SortableType type, InstructionTransformer transformer) {
+        ClassDef classDef = type.getClassDef();
+        if (classDef.getClassDataOffset() == 0) {
+            return null;
+        }
+        Dex in = type.getDex();
+        IndexMap indexMap = type.getIndexMap();
+        ClassData classData = in.readClassData(classDef);
+        return new TranslatedClass(classData,
+                translateMethods(in, indexMap, classData.getDirectMethods(), transformer),
+                translateMethods(in, indexMap, classData.getVirtualMethods(), transformer));
+    }
+
+    private TranslatedCode[] translateMethods(Dex in, IndexMap indexMap,
+            ClassData.Method[] methods, InstructionTransformer transformer) {
+        TranslatedCode[] result = new TranslatedCode[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].getCodeOffset() == 0) {
+                continue;
+            }
+            Code code = in.readCode(methods[i]);
+            int debugInfoOffset = code.getDebugInfoOffset();
+            byte[] debugInfo = debugInfoOffset != 0
+                    ? transformDebugInfoItem(in.open(debugInfoOffset), indexMap)
+                    : null;
+            short[] instructions = transformer.transform(indexMap, code.getInstructions());
+            result[i] = new TranslatedCode(code, instructions, debugInfo);
+        }
+        return result;
+    }
+
+    /**
+     * A class whose instructions and debug info have been translated to the
+     * output's indices, but not yet written.
+     */
+    private static final class TranslatedClass {
+        private final ClassData classData;
+        private final TranslatedCode[] directMethods;
+        private final TranslatedCode[] virtualMethods;
+
+        TranslatedClass(ClassData classData, TranslatedCode[] directMethods,
+                TranslatedCode[] virtualMethods) {
+            this.classData = classData;
+            this.directMethods = directMethods;
+            this.virtualMethods = virtualMethods;
+        }
+    }
+
+    /**
+     * A code item with translated instructions and debug info.
+     */
+    private static final class TranslatedCode {
+        private final Code code;
+        private final short[] instructions;
+        /** {@code null-ok;} encoded debug info, or null if the code has none */
+        private final byte[] debugInfo;
+
+        TranslatedCode(Code code, short[] instructions, byte[] debugInfo) {
+            this.code = code;
+            this.instructions = instructions;
+            this.debugInfo = debugInfo;
         }
     }
 
@@ -644,10 +853,11 @@ public final class DexMerger {
     }
 
     /**
-     * Reads a class_def_item beginning at {@code in} and writes the index and
-     * data.
+     * Writes the index and data of {@code classDef}, whose class body has
+     * already been translated to {@code translated}.
      */
-    private void transformClassDef(Dex in, ClassDef classDef, IndexMap indexMap) {
+    private void transformClassDef(ClassDef classDef, IndexMap indexMap,
+            TranslatedClass translated) {
         idsDefsOut.assertFourByteAligned();
         idsDefsOut.writeInt(classDef.getTypeIndex());
         idsDefsOut.writeInt(classDef.getAccessFlags());
@@ -665,8 +875,7 @@ public final class DexMerger {
             idsDefsOut.writeInt(0);
         } else {
             idsDefsOut.writeInt(classDataOut.getPosition());
-            ClassData classData = in.readClassData(classDef);
-            transformClassData(in, classData, indexMap);
+            transformClassData(translated, indexMap);
         }
 
         int staticValuesOff = classDef.getStaticValuesOffset();
@@ -754,9 +963,10 @@ public final class DexMerger {
         }
     }
 
-    private void transformClassData(Dex in, ClassData classData, IndexMap indexMap) {
+    private void transformClassData(TranslatedClass translated, IndexMap indexMap) {
         contentsOut.classDatas.size++;
 
+        ClassData classData = translated.classData;
         ClassData.Field[] staticFields = classData.getStaticFields();
         ClassData.Field[] instanceFields = classData.getInstanceFields();
         ClassData.Method[] directMethods = classData.getDirectMethods();
@@ -769,8 +979,8 @@ public final class DexMerger {
 
         transformFields(indexMap, staticFields);
         transformFields(indexMap, instanceFields);
-        transformMethods(in, indexMap, directMethods);
-        transformMethods(in, indexMap, virtualMethods);
+        transformMethods(indexMap, directMethods, translated.directMethods);
+        transformMethods(indexMap, virtualMethods, translated.virtualMethods);
     }
 
     private void transformFields(IndexMap indexMap, ClassData.Field[] fields) {
@@ -783,9 +993,11 @@ public final class DexMerger {
         }
     }
 
-    private void transformMethods(Dex in, IndexMap indexMap, ClassData.Method[] methods) {
+    private void transformMethods(IndexMap indexMap, ClassData.Method[] methods,
+            TranslatedCode[] codes) {
         int lastOutMethodIndex = 0;
-        for (ClassData.Method method : methods) {
+        for (int i = 0; i < methods.length; i++) {
+            ClassData.Method method = methods[i];
             int outMethodIndex = indexMap.adjustMethod(method.getMethodIndex());
             classDataOut.writeUleb128(outMethodIndex - lastOutMethodIndex);
             lastOutMethodIndex = outMethodIndex;
@@ -797,12 +1009,13 @@ public final class DexMerger {
             } else {
                 codeOut.alignToFourBytesWithZeroFill();
                 classDataOut.writeUleb128(codeOut.getPosition());
-                transformCode(in, in.readCode(method), indexMap);
+                transformCode(codes[i], indexMap);
             }
         }
     }
 
-    private void transformCode(Dex in, Code code, IndexMap indexMap) {
+    private void transformCode(TranslatedCode translated, IndexMap indexMap) {
+        Code code = translated.code;
         contentsOut.codes.size++;
         codeOut.assertFourByteAligned();
 
@@ -814,16 +1027,15 @@ public final class DexMerger {
         Code.CatchHandler[] catchHandlers = code.getCatchHandlers();
         codeOut.writeUnsignedShort(tries.length);
 
-        int debugInfoOffset = code.getDebugInfoOffset();
-        if (debugInfoOffset != 0) {
+        if (translated.debugInfo != null) {
+            contentsOut.debugInfos.size++;
             codeOut.writeInt(debugInfoOut.getPosition());
-            transformDebugInfoItem(in.open(debugInfoOffset), indexMap);
+            debugInfoOut.write(translated.debugInfo);
         } else {
             codeOut.writeInt(0);
         }
 
-        short[] instructions = code.getInstructions();
-        short[] newInstructions = instructionTransformer.transform(indexMap, instructions);
+        short[] newInstructions = translated.instructions;
         codeOut.writeInt(newInstructions.length);
         codeOut.write(newInstructions);
 
@@ -878,17 +1090,21 @@ public final class DexMerger {
     private static final byte DBG_SET_EPILOGUE_BEGIN = 0x08;
     private static final byte DBG_SET_FILE = 0x09;
 
-    private void transformDebugInfoItem(Dex.Section in, IndexMap indexMap) {
-        contentsOut.debugInfos.size++;
+    /**
+     * Returns the debug info item at {@code in} with its string and type
+     * indices adjusted.
+     */
+    private static byte[] transformDebugInfoItem(Dex.Section in, IndexMap indexMap) {
+        ByteArrayAnnotatedOutput out = new ByteArrayAnnotatedOutput(32);
         int lineStart = in.readUleb128();
-        debugInfoOut.writeUleb128(lineStart);
+        out.writeUleb128(lineStart);
 
         int parametersSize = in.readUleb128();
-        debugInfoOut.writeUleb128(parametersSize);
+        out.writeUleb128(parametersSize);
 
         for (int p = 0; p < parametersSize; p++) {
             int parameterName = in.readUleb128p1();
-            debugInfoOut.writeUleb128p1(indexMap.adjustString(parameterName));
+            out.writeUleb128(1 + indexMap.adjustString(parameterName));
         }
 
         int addrDiff;    // uleb128   address delta.
@@ -900,45 +1116,45 @@ public final class DexMerger {
 
         while (true) {
             int opcode = in.readByte();
-            debugInfoOut.writeByte(opcode);
+            out.writeByte(opcode);
 
             switch (opcode) {
             case DBG_END_SEQUENCE:
-                return;
+                return out.toByteArray();
 
             case DBG_ADVANCE_PC:
                 addrDiff = in.readUleb128();
-                debugInfoOut.writeUleb128(addrDiff);
+                out.writeUleb128(addrDiff);
                 break;
 
             case DBG_ADVANCE_LINE:
                 lineDiff = in.readSleb128();
-                debugInfoOut.writeSleb128(lineDiff);
+                out.writeSleb128(lineDiff);
                 break;
 
             case DBG_START_LOCAL:
             case DBG_START_LOCAL_EXTENDED:
                 registerNum = in.readUleb128();
-                debugInfoOut.writeUleb128(registerNum);
+                out.writeUleb128(registerNum);
                 nameIndex = in.readUleb128p1();
-                debugInfoOut.writeUleb128p1(indexMap.adjustString(nameIndex));
+                out.writeUleb128(1 + indexMap.adjustString(nameIndex));
                 typeIndex = in.readUleb128p1();
-                debugInfoOut.writeUleb128p1(indexMap.adjustType(typeIndex));
+                out.writeUleb128(1 + indexMap.adjustType(typeIndex));
                 if (opcode == DBG_START_LOCAL_EXTENDED) {
                     sigIndex = in.readUleb128p1();
-                    debugInfoOut.writeUleb128p1(indexMap.adjustString(sigIndex));
+                    out.writeUleb128(1 + indexMap.adjustString(sigIndex));
                 }
                 break;
 
             case DBG_END_LOCAL:
             case DBG_RESTART_LOCAL:
                 registerNum = in.readUleb128();
-                debugInfoOut.writeUleb128(registerNum);
+                out.writeUleb128(registerNum);
                 break;
 
             case DBG_SET_FILE:
                 nameIndex = in.readUleb128p1();
-                debugInfoOut.writeUleb128p1(indexMap.adjustString(nameIndex));
+                out.writeUleb128(1 + indexMap.adjustString(nameIndex));
                 break;
 
             case DBG_SET_PROLOGUE_END:
@@ -1103,7 +1319,7 @@ public final class DexMerger {
 
         Dex[] dexes = new Dex[args.length - 1];
         for (int i = 1; i < args.length; i++) {
-            dexes[i - 1] = new Dex(new File(args[i]));
+            dexes[i - 1] = Dex.open(new File(args[i]).toPath());
         }
         Dex merged = new DexMerger(dexes, CollisionPolicy.KEEP_FIRST).merge();
         merged.writeTo(new File(args[0]));
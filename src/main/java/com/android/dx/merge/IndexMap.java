@@ -47,7 +47,7 @@ import com.android.dex.ProtoId;
 import com.android.dex.TableOfContents;
 import com.android.dex.TypeList;
 import com.android.dx.util.ByteArrayAnnotatedOutput;
-import java.util.HashMap;
+import com.android.dx.util.IntIntMap;
 
 /**
  * Maps the index offsets from one dex file to those in another. For example, if
@@ -61,12 +61,12 @@ public final class IndexMap {
     public final short[] protoIds;
     public final short[] fieldIds;
     public final short[] methodIds;
-    private final HashMap<Integer, Integer> typeListOffsets;
-    private final HashMap<Integer, Integer> annotationOffsets;
-    private final HashMap<Integer, Integer> annotationSetOffsets;
-    private final HashMap<Integer, Integer> annotationSetRefListOffsets;
-    private final HashMap<Integer, Integer> annotationDirectoryOffsets;
-    private final HashMap<Integer, Integer> staticValuesOffsets;
+    private final IntIntMap typeListOffsets;
+    private final IntIntMap annotationOffsets;
+    private final IntIntMap annotationSetOffsets;
+    private final IntIntMap annotationSetRefListOffsets;
+    private final IntIntMap annotationDirectoryOffsets;
+    private final IntIntMap staticValuesOffsets;
 
     public IndexMap(Dex target, TableOfContents tableOfContents) {
         this.target = target;
@@ -75,12 +75,14 @@ public final class IndexMap {
         this.protoIds = new short[tableOfContents.protoIds.size];
         this.fieldIds = new short[tableOfContents.fieldIds.size];
         this.methodIds = new short[tableOfContents.methodIds.size];
-        this.typeListOffsets = new HashMap<Integer, Integer>();
-        this.annotationOffsets = new HashMap<Integer, Integer>();
-        this.annotationSetOffsets = new HashMap<Integer, Integer>();
-        this.annotationSetRefListOffsets = new HashMap<Integer, Integer>();
-        this.annotationDirectoryOffsets = new HashMap<Integer, Integer>();
-        this.staticValuesOffsets = new HashMap<Integer, Integer>();
+        this.typeListOffsets = new IntIntMap(tableOfContents.typeLists.size + 1);
+        this.annotationOffsets = new IntIntMap(tableOfContents.annotations.size + 1);
+        this.annotationSetOffsets = new IntIntMap(tableOfContents.annotationSets.size + 1);
+        this.annotationSetRefListOffsets =
+                new IntIntMap(tableOfContents.annotationSetRefLists.size + 1);
+        this.annotationDirectoryOffsets =
+                new IntIntMap(tableOfContents.annotationsDirectories.size + 1);
+        this.staticValuesOffsets = new IntIntMap(tableOfContents.encodedArrays.size + 1);
 
         /*
          * A type list, annotation set, annotation directory, or static value at
@@ -166,27 +168,35 @@ public final class IndexMap {
     }
 
     public int adjustTypeListOffset(int typeListOffset) {
-        return typeListOffsets.get(typeListOffset);
+        return adjustOffset(typeListOffsets, typeListOffset);
     }
 
     public int adjustAnnotation(int annotationOffset) {
-        return annotationOffsets.get(annotationOffset);
+        return adjustOffset(annotationOffsets, annotationOffset);
     }
 
     public int adjustAnnotationSet(int annotationSetOffset) {
-        return annotationSetOffsets.get(annotationSetOffset);
+        return adjustOffset(annotationSetOffsets, annotationSetOffset);
     }
 
     public int adjustAnnotationSetRefList(int annotationSetRefListOffset) {
-        return annotationSetRefListOffsets.get(annotationSetRefListOffset);
+        return adjustOffset(annotationSetRefListOffsets, annotationSetRefListOffset);
     }
 
     public int adjustAnnotationDirectory(int annotationDirectoryOffset) {
-        return annotationDirectoryOffsets.get(annotationDirectoryOffset);
+        return adjustOffset(annotationDirectoryOffsets, annotationDirectoryOffset);
     }
 
     public int adjustStaticValues(int staticValuesOffset) {
-        return staticValuesOffsets.get(staticValuesOffset);
+        return adjustOffset(staticValuesOffsets, staticValuesOffset);
+    }
+
+    private static int adjustOffset(IntIntMap offsets, int oldOffset) {
+        int newOffset = offsets.get(oldOffset, -1);
+        if (newOffset == -1) {
+            throw new DexException("No mapping for offset " + oldOffset);
+        }
+        return newOffset;
     }
 
     public MethodId adjust(MethodId methodId) {
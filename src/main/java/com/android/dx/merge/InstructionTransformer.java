@@ -17,7 +17,10 @@
 package com.android.dx.merge;
 
 import com.android.dex.DexIndexOverflowException;
+import com.android.dx.io.IndexType;
+import com.android.dx.io.OpcodeInfo;
 import com.android.dx.io.Opcodes;
+import com.android.dx.io.instructions.InstructionCodec;
 import com.android.dx.io.instructions.ShortArrayCodeOutput;
 import com.android.dex.DexException;
 import com.android.dx.io.CodeReader;
@@ -40,6 +43,11 @@ final class InstructionTransformer {
     }
 
     public short[] transform(IndexMap indexMap, short[] encodedInstructions) throws DexException {
+        short[] patched = patchIndices(indexMap, encodedInstructions);
+        if (patched != null) {
+            return patched;
+        }
+
         DecodedInstruction[] decodedInstructions =
             DecodedInstruction.decodeAll(encodedInstructions);
         int size = decodedInstructions.length;
@@ -60,6 +68,129 @@ final class InstructionTransformer {
         return out.getArray();
     }
 
+    /**
+     * Rewrites the indices of {@code encodedInstructions} in a copy of the
+     * array, without decoding instructions into objects. Index remapping
+     * never changes the width of an instruction, so every instruction stays
+     * at its original address and branch offsets and payloads are copied
+     * verbatim.
+     *
+     * @return {@code null-ok;} the rewritten instructions, or null if the
+     *     code contains something this method doesn't understand, in which
+     *     case the caller should take the decoding path
+     */
+    private static short[] patchIndices(IndexMap indexMap, short[] encodedInstructions) {
+        short[] result = encodedInstructions.clone();
+        int size = result.length;
+        int cursor = 0;
+
+        while (cursor < size) {
+            int opcodeUnit = result[cursor] & 0xffff;
+            int opcode = Opcodes.extractOpcodeFromUnit(opcodeUnit);
+            if (!Opcodes.isValidShape(opcode)) {
+                return null;
+            }
+            InstructionCodec format = OpcodeInfo.getFormat(opcode);
+            int unitCount = codeUnitCount(format, result, cursor);
+            if (unitCount <= 0 || cursor + unitCount > size) {
+                return null;
+            }
+
+            IndexType indexType = OpcodeInfo.getIndexType(opcode);
+            int mappedId;
+            switch (indexType) {
+                case STRING_REF:
+                    mappedId = indexMap.adjustString(readIndex(format, result, cursor));
+                    break;
+                case TYPE_REF:
+                    mappedId = indexMap.adjustType(readIndex(format, result, cursor));
+                    break;
+                case FIELD_REF:
+                    mappedId = indexMap.adjustField(readIndex(format, result, cursor));
+                    break;
+                case METHOD_REF:
+                    mappedId = indexMap.adjustMethod(readIndex(format, result, cursor));
+                    break;
+                default:
+                    cursor += unitCount;
+                    continue;
+            }
+
+            if (format == InstructionCodec.FORMAT_31C) {
+                result[cursor + 1] = (short) mappedId;
+                result[cursor + 2] = (short) (mappedId >> 16);
+            } else if (isSixteenBitIndexFormat(format)) {
+                jumboCheck(opcode == Opcodes.CONST_STRING_JUMBO, mappedId);
+                result[cursor + 1] = (short) mappedId;
+            } else {
+                return null;
+            }
+            cursor += unitCount;
+        }
+
+        return result;
+    }
+
+    private static boolean isSixteenBitIndexFormat(InstructionCodec format) {
+        return format == InstructionCodec.FORMAT_21C
+                || format == InstructionCodec.FORMAT_22C
+                || format == InstructionCodec.FORMAT_35C
+                || format == InstructionCodec.FORMAT_3RC;
+    }
+
+    private static int readIndex(InstructionCodec format, short[] insns, int cursor) {
+        if (format == InstructionCodec.FORMAT_31C) {
+            return (insns[cursor + 1] & 0xffff) | (insns[cursor + 2] << 16);
+        }
+        return insns[cursor + 1] & 0xffff;
+    }
+
+    /**
+     * Returns the number of code units of the instruction or payload at
+     * {@code cursor}, or {@code -1} if {@code format} is unknown.
+     */
+    private static int codeUnitCount(InstructionCodec format, short[] insns, int cursor) {
+        switch (format) {
+            case FORMAT_10X: case FORMAT_12X: case FORMAT_11N: case FORMAT_11X:
+            case FORMAT_10T:
+                return 1;
+            case FORMAT_20T: case FORMAT_20BC: case FORMAT_22X: case FORMAT_21T:
+            case FORMAT_21S: case FORMAT_21H: case FORMAT_21C: case FORMAT_23X:
+            case FORMAT_22B: case FORMAT_22T: case FORMAT_22S: case FORMAT_22C:
+            case FORMAT_22CS:
+                return 2;
+            case FORMAT_30T: case FORMAT_32X: case FORMAT_31I: case FORMAT_31T:
+            case FORMAT_31C: case FORMAT_35C: case FORMAT_35MS: case FORMAT_35MI:
+            case FORMAT_3RC: case FORMAT_3RMS: case FORMAT_3RMI:
+                return 3;
+            case FORMAT_51L:
+                return 5;
+        }
+
+        // Payloads carry their own sizes after the opcode unit.
+        if (cursor + 1 >= insns.length) {
+            return -1;
+        }
+        int size = insns[cursor + 1] & 0xffff;
+        switch (format) {
+            case FORMAT_PACKED_SWITCH_PAYLOAD:
+                return 4 + size * 2;
+            case FORMAT_SPARSE_SWITCH_PAYLOAD:
+                return 2 + size * 4;
+            case FORMAT_FILL_ARRAY_DATA_PAYLOAD: {
+                if (cursor + 3 >= insns.length) {
+                    return -1;
+                }
+                long elementCount = (insns[cursor + 2] & 0xffff)
+                        | ((long) (insns[cursor + 3] & 0xffff) << 16);
+                long dataUnits = (size * elementCount + 1) / 2;
+                return dataUnits > insns.length ? -1 : 4 + (int) dataUnits;
+            }
+            default:
+                return -1;
+        }
+    }
+
     private class GenericVisitor implements CodeReader.Visitor {
         public void visit(DecodedInstruction[] all, DecodedInstruction one) {
             mappedInstructions[mappedAt++] = one;
@@ -22,7 +22,7 @@ import com.android.dx.rop.type.Type;
 import com.android.dx.rop.type.TypeBearer;
 import com.android.dx.util.ToHuman;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Combination of a register number and a type, used as the sources and
@@ -33,12 +33,31 @@ public final class RegisterSpec
     /** {@code non-null;} string to prefix register numbers with */
     public static final String PREFIX = "v";
 
-    /** {@code non-null;} intern table for instances */
-    private static final HashMap<Object, RegisterSpec> theInterns =
-        new HashMap<Object, RegisterSpec>(1000);
+    /** initial capacity of a fresh intern table */
+    private static final int INITIAL_INTERN_CAPACITY = 1000;
 
-    /** {@code non-null;} common comparison instance used while interning */
-    private static final ForComparison theInterningItem = new ForComparison();
+    /**
+     * {@code non-null;} intern table for instances. Interning is only a
+     * memory optimization (instances are compared with {@code equals}), so
+     * the table may be replaced by an empty one at any time.
+     */
+    private static volatile ConcurrentHashMap<Object, RegisterSpec> theInterns =
+        new ConcurrentHashMap<Object, RegisterSpec>(INITIAL_INTERN_CAPACITY);
+
+    /**
+     * {@code >= 0;} number of instances after which the intern table is
+     * started afresh, or {@code 0} to let it grow without bound
+     */
+    private static volatile int internTableLimit = 0;
+
+    /** {@code non-null;} per-thread comparison instances used while interning */
+    private static final ThreadLocal<ForComparison> theInterningItem =
+        new ThreadLocal<ForComparison>() {
+            @Override
+            protected ForComparison initialValue() {
+                return new ForComparison();
+            }
+        };
 
     /** {@code >= 0;} register number */
     private final int reg;
@@ -63,18 +82,53 @@ public final class RegisterSpec
      */
     private static RegisterSpec intern(int reg, TypeBearer type,
             LocalItem local) {
-        synchronized (theInterns) {
-            theInterningItem.set(reg, type, local);
-            RegisterSpec found = theInterns.get(theInterningItem);
-
-            if (found != null) {
-                return found;
-            }
+        ConcurrentHashMap<Object, RegisterSpec> interns = theInterns;
+        ForComparison interningItem = theInterningItem.get();
+        interningItem.set(reg, type, local);
+        RegisterSpec found = interns.get(interningItem);
+        interningItem.set(0, null, null); // don't pin the type and local
 
-            found = theInterningItem.toRegisterSpec();
-            theInterns.put(found, found);
+        if (found != null) {
             return found;
         }
+
+        found = new RegisterSpec(reg, type, local);
+        RegisterSpec already = interns.putIfAbsent(found, found);
+        if (already != null) {
+            return already;
+        }
+
+        int limit = internTableLimit;
+        if (limit > 0 && interns.size() > limit) {
+            // Start a new generation; instances from the old one stay valid.
+            theInterns = new ConcurrentHashMap<Object, RegisterSpec>(INITIAL_INTERN_CAPACITY);
+        }
+        return found;
+    }
+
+    /**
+     * Bounds the intern table, for long-running processes that would
+     * otherwise accumulate instances from every method ever translated. Once
+     * the table holds more than {@code limit} instances it is replaced by an
+     * empty one, so that instances only referenced by the table can be
+     * garbage collected.
+     *
+     * @param limit {@code >= 0;} the maximum table size, or {@code 0} for no
+     * limit
+     */
+    public static void setInternTableLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit < 0");
+        }
+
+        internTableLimit = limit;
+    }
+
+    /**
+     * Empties the intern table. Existing instances remain valid.
+     */
+    public static void clearInternTable() {
+        theInterns = new ConcurrentHashMap<Object, RegisterSpec>(INITIAL_INTERN_CAPACITY);
     }
 
     /**
@@ -633,16 +687,6 @@ public final class RegisterSpec
             this.local = local;
         }
 
-        /**
-         * Construct a {@code RegisterSpec} of this instance's
-         * contents.
-         *
-         * @return {@code non-null;} an appropriately-constructed instance
-         */
-        public RegisterSpec toRegisterSpec() {
-            return new RegisterSpec(reg, type, local);
-        }
-
         /** {@inheritDoc} */
         @Override
         public boolean equals(Object other) {
@@ -19,11 +19,31 @@ package com.android.dx.rop.cst;
 import com.android.dx.rop.type.Type;
 import com.android.dx.util.ByteArray;
 import com.android.dx.util.Hex;
+import com.android.dx.util.InternTable;
 
 /**
  * Constants of type {@code CONSTANT_Utf8_info} or {@code CONSTANT_String_info}.
  */
 public final class CstString extends TypedConstant {
+    /**
+     * number of strings after which {@link #strings} starts a new
+     * generation, so that it doesn't keep every string literal ever seen
+     */
+    private static final int STRING_INTERN_LIMIT = 100000;
+
+    /**
+     * {@code non-null;} cache of {@link String#intern} results. Values are
+     * the VM-interned strings, because attribute parsing compares names
+     * against literals with {@code ==}; since those are stable, this table
+     * may be cleared at any time.
+     */
+    private static final InternTable<String, String> strings =
+        new InternTable<String, String>("CstString", 10000);
+
+    static {
+        strings.setLimit(STRING_INTERN_LIMIT);
+    }
+
     /**
      * {@code non-null;} instance representing {@code ""}, that is, the
      * empty string
@@ -182,7 +202,7 @@ public final class CstString extends TypedConstant {
             throw new NullPointerException("string == null");
         }
 
-        this.string = string.intern();
+        this.string = internString(string);
         this.bytes = new ByteArray(stringToUtf8Bytes(string));
     }
 
@@ -197,7 +217,15 @@ public final class CstString extends TypedConstant {
         }
 
         this.bytes = bytes;
-        this.string = utf8BytesToString(bytes).intern();
+        this.string = internString(utf8BytesToString(bytes));
+    }
+
+    /**
+     * Returns the VM-interned instance of {@code string}.
+     */
+    private static String internString(String string) {
+        String result = strings.get(string);
+        return (result != null) ? result : strings.putIfAbsent(string, string.intern());
     }
 
     /** {@inheritDoc} */
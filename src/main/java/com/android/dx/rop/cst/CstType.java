@@ -17,16 +17,18 @@
 package com.android.dx.rop.cst;
 
 import com.android.dx.rop.type.Type;
-
-import java.util.HashMap;
+import com.android.dx.util.InternTable;
 
 /**
  * Constants that represent an arbitrary type (reference or primitive).
  */
 public final class CstType extends TypedConstant {
-    /** {@code non-null;} map of interned types */
-    private static final HashMap<Type, CstType> interns =
-        new HashMap<Type, CstType>(100);
+    /**
+     * {@code non-null;} map of interned types; weak, so that constants no
+     * longer in use don't stay around
+     */
+    private static final InternTable<Type, CstType> interns =
+        new InternTable<Type, CstType>("CstType", 100, true);
 
     /** {@code non-null;} instance corresponding to the class {@code Object} */
     public static final CstType OBJECT = intern(Type.OBJECT);
@@ -123,16 +125,13 @@ public final class CstType extends TypedConstant {
      * @return {@code non-null;} an appropriately-constructed instance
      */
     public static CstType intern(Type type) {
-        synchronized (interns) {
-            CstType cst = interns.get(type);
+        CstType cst = interns.get(type);
 
-            if (cst == null) {
-                cst = new CstType(type);
-                interns.put(type, cst);
-            }
-
-            return cst;
+        if (cst == null) {
+            cst = interns.putIfAbsent(type, new CstType(type));
         }
+
+        return cst;
     }
 
     /**
@@ -16,7 +16,7 @@
 
 package com.android.dx.rop.type;
 
-import java.util.HashMap;
+import com.android.dx.util.InternTable;
 
 /**
  * Representation of a method descriptor. Instances of this class are
@@ -24,9 +24,13 @@ import java.util.HashMap;
  * using {@code ==}.
  */
 public final class Prototype implements Comparable<Prototype> {
-    /** {@code non-null;} intern table mapping string descriptors to instances */
-    private static final HashMap<String, Prototype> internTable =
-        new HashMap<String, Prototype>(500);
+    /**
+     * {@code non-null;} intern table mapping string descriptors to
+     * instances; weak, so that prototypes no longer in use don't stay
+     * around
+     */
+    private static final InternTable<String, Prototype> internTable =
+        new InternTable<String, Prototype>("Prototype", 500, true);
 
     /** {@code non-null;} method descriptor */
     private final String descriptor;
@@ -55,10 +59,7 @@ public final class Prototype implements Comparable<Prototype> {
             throw new NullPointerException("descriptor == null");
         }
 
-        Prototype result;
-        synchronized (internTable) {
-            result = internTable.get(descriptor);
-        }
+        Prototype result = internTable.get(descriptor);
         if (result != null) {
             return result;
         }
@@ -387,14 +388,6 @@ public final class Prototype implements Comparable<Prototype> {
      * @return {@code non-null;} the actual interned object
      */
     private static Prototype putIntern(Prototype desc) {
-        synchronized (internTable) {
-            String descriptor = desc.getDescriptor();
-            Prototype already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, desc);
-            return desc;
-        }
+        return internTable.putIfAbsent(desc.getDescriptor(), desc);
     }
 }
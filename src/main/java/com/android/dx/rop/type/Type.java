@@ -17,7 +17,7 @@
 package com.android.dx.rop.type;
 
 import com.android.dx.util.Hex;
-import java.util.HashMap;
+import com.android.dx.util.InternTable;
 
 /**
  * Representation of a value type, such as may appear in a field, in a
@@ -28,10 +28,10 @@ import java.util.HashMap;
 public final class Type implements TypeBearer, Comparable<Type> {
     /**
      * {@code non-null;} intern table mapping string descriptors to
-     * instances
+     * instances; weak, so that types no longer in use don't stay around
      */
-    private static final HashMap<String, Type> internTable =
-        new HashMap<String, Type>(500);
+    private static final InternTable<String, Type> internTable =
+        new InternTable<String, Type>("Type", 500, true);
 
     /** basic type constant for {@code void} */
     public static final int BT_VOID = 0;
@@ -264,13 +264,13 @@ public final class Type implements TypeBearer, Comparable<Type> {
      * {@code null-ok;} the type corresponding to an array of this type, if
      * calculated
      */
-    private Type arrayType;
+    private volatile Type arrayType;
 
     /**
      * {@code null-ok;} the type corresponding to elements of this type, if
      * calculated; only valid if {@code this} is an array type
      */
-    private Type componentType;
+    private volatile Type componentType;
 
     /**
      * {@code null-ok;} the type corresponding to the initialized version of
@@ -291,10 +291,11 @@ public final class Type implements TypeBearer, Comparable<Type> {
      * invalid syntax
      */
     public static Type intern(String descriptor) {
-        Type result;
-        synchronized (internTable) {
-            result = internTable.get(descriptor);
+        if (descriptor == null) {
+            throw new NullPointerException("descriptor == null");
         }
+
+        Type result = internTable.get(descriptor);
         if (result != null) {
             return result;
         }
@@ -848,14 +849,6 @@ public final class Type implements TypeBearer, Comparable<Type> {
      * @return {@code non-null;} the actual interned object
      */
     private static Type putIntern(Type type) {
-        synchronized (internTable) {
-            String descriptor = type.getDescriptor();
-            Type already = internTable.get(descriptor);
-            if (already != null) {
-                return already;
-            }
-            internTable.put(descriptor, type);
-            return type;
-        }
+        return internTable.putIfAbsent(type.getDescriptor(), type);
     }
 }
@@ -16,9 +16,12 @@
 
 package com.android.dx.ssa;
 
+import com.android.dx.util.IntIterator;
+import com.android.dx.util.IntList;
 import com.android.dx.util.IntSet;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
 
 /**
  * Calculates the dominance-frontiers of a methot's basic blocks.
@@ -42,7 +45,7 @@ public class DomFront {
     public static class DomInfo {
         /**
          * {@code null-ok;} the dominance frontier set indexed by
-         * block index
+         * block index; read-only
          */
         public IntSet dominanceFrontiers;
 
@@ -99,11 +102,6 @@ public class DomFront {
             debugPrintDomChildren();
         }
 
-        for (int i = 0; i < szNodes; i++) {
-            domInfos[i].dominanceFrontiers
-                    = SetFactory.makeDomFrontSet(szNodes);
-        }
-
         calcDomFronts();
 
         if (DEBUG) {
@@ -161,40 +159,175 @@ public class DomFront {
      * Calculates the dominance-frontier set.
      * from "A Simple, Fast Dominance Algorithm" by Cooper,
      * Harvey, and Kennedy; transliterated to Java.
+     *
+     * A block is only added to frontiers while that block is being
+     * looked at, so the frontiers come out sorted, and whether a runner
+     * already has it is just whether it was the last block added to that
+     * runner. The frontiers are then packed into one array, of which each
+     * block's set is a slice, rather than kept in a set per block that
+     * would take quadratic space as bits or linear time per add as a list.
      */
     private void calcDomFronts() {
         int szNodes = nodes.size();
+        int[] idoms = new int[szNodes];
+        int[] lastAdded = new int[szNodes];
+        int[] counts = new int[szNodes];
+
+        for (int i = 0; i < szNodes; i++) {
+            idoms[i] = domInfos[i].idom;
+        }
+        Arrays.fill(lastAdded, -1);
+
+        // The runners and the blocks added to their frontiers, in pairs.
+        IntList additions = new IntList();
+
+        /*
+         * The predecessor lists come out sorted, so a block appearing
+         * more than once in one, for parallel edges, appears in a run.
+         */
+        int[] predStart = new int[szNodes + 1];
+        int[] preds = Dominators.flattenEdges(nodes, true, predStart);
 
         for (int b = 0; b < szNodes; b++) {
-            SsaBasicBlock nb = nodes.get(b);
-            DomInfo nbInfo = domInfos[b];
-            BitSet pred = nb.getPredecessors();
-
-            if (pred.cardinality() > 1) {
-                for (int i = pred.nextSetBit(0); i >= 0;
-                     i = pred.nextSetBit(i + 1)) {
-
-                    for (int runnerIndex = i;
-                         runnerIndex != nbInfo.idom; /* empty */) {
-                        /*
-                         * We can stop if we hit a block we already
-                         * added label to, since we must be at a part
-                         * of the dom tree we have seen before.
-                         */
-                        if (runnerIndex == -1) break;
-
-                        DomInfo runnerInfo = domInfos[runnerIndex];
-
-                        if (runnerInfo.dominanceFrontiers.has(b)) {
-                            break;
-                        }
-
-                        // Add b to runner's dominance frontier set.
-                        runnerInfo.dominanceFrontiers.add(b);
-                        runnerIndex = runnerInfo.idom;
+            int nbIdom = idoms[b];
+            int start = predStart[b];
+            int end = predStart[b + 1];
+
+            // Blocks with a single predecessor are in no frontier.
+            if (end - start < 2 || preds[start] == preds[end - 1]) {
+                continue;
+            }
+
+            for (int at = start; at < end; at++) {
+                int i = preds[at];
+
+                if (at > start && i == preds[at - 1]) {
+                    continue;
+                }
+
+                for (int runnerIndex = i;
+                     runnerIndex != nbIdom; /* empty */) {
+                    /*
+                     * We can stop if we hit a block we already
+                     * added label to, since we must be at a part
+                     * of the dom tree we have seen before.
+                     */
+                    if (runnerIndex == -1) break;
+
+                    if (lastAdded[runnerIndex] == b) {
+                        break;
                     }
+
+                    // Add b to runner's dominance frontier set.
+                    lastAdded[runnerIndex] = b;
+                    counts[runnerIndex]++;
+                    additions.add(runnerIndex);
+                    additions.add(b);
+                    runnerIndex = idoms[runnerIndex];
                 }
             }
         }
+
+        int[] starts = new int[szNodes + 1];
+        for (int i = 0; i < szNodes; i++) {
+            starts[i + 1] = starts[i] + counts[i];
+        }
+
+        int[] frontiers = new int[starts[szNodes]];
+        int[] at = Arrays.copyOf(starts, szNodes);
+        for (int i = 0, sz = additions.size(); i < sz; i += 2) {
+            frontiers[at[additions.get(i)]++] = additions.get(i + 1);
+        }
+
+        for (int i = 0; i < szNodes; i++) {
+            domInfos[i].dominanceFrontiers
+                    = new FrontierSet(frontiers, starts[i], starts[i + 1]);
+        }
+    }
+
+    /**
+     * Read-only set of block indices which is a sorted slice of an array
+     * shared by all frontiers of a method.
+     */
+    private static final class FrontierSet implements IntSet {
+        /** {@code non-null;} the array holding the elements */
+        private final int[] values;
+
+        /** index of the first element in {@link #values} */
+        private final int start;
+
+        /** index just past the last element in {@link #values} */
+        private final int end;
+
+        FrontierSet(int[] values, int start, int end) {
+            this.values = values;
+            this.start = start;
+            this.end = end;
+        }
+
+        /** @inheritDoc */
+        public void add(int value) {
+            throw new UnsupportedOperationException("read-only");
+        }
+
+        /** @inheritDoc */
+        public void remove(int value) {
+            throw new UnsupportedOperationException("read-only");
+        }
+
+        /** @inheritDoc */
+        public boolean has(int value) {
+            return Arrays.binarySearch(values, start, end, value) >= 0;
+        }
+
+        /** @inheritDoc */
+        public void merge(IntSet other) {
+            throw new UnsupportedOperationException("read-only");
+        }
+
+        /** @inheritDoc */
+        public int elements() {
+            return end - start;
+        }
+
+        /** @inheritDoc */
+        public IntIterator iterator() {
+            return new IntIterator() {
+                private int idx = start;
+
+                /** @inheritDoc */
+                public boolean hasNext() {
+                    return idx < end;
+                }
+
+                /** @inheritDoc */
+                public int next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    return values[idx++];
+                }
+            };
+        }
+
+        /** @inheritDoc */
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append('{');
+
+            for (int i = start; i < end; i++) {
+                if (i != start) {
+                    sb.append(", ");
+                }
+                sb.append(values[i]);
+            }
+
+            sb.append('}');
+
+            return sb.toString();
+        }
     }
 }
@@ -16,31 +16,32 @@
 
 package com.android.dx.ssa;
 
+import com.android.dx.util.IntList;
 import java.util.ArrayList;
-import java.util.BitSet;
-import java.util.HashSet;
+import java.util.Arrays;
 
 /**
  * This class computes dominator and post-dominator information using the
- * Lengauer-Tarjan method.
+ * iterative method.
  *
- * See A Fast Algorithm for Finding Dominators in a Flowgraph
- * T. Lengauer & R. Tarjan, ACM TOPLAS July 1979, pgs 121-141.
+ * See A Simple, Fast Dominance Algorithm
+ * K. Cooper, T. Harvey & K. Kennedy, Software Practice and Experience 2001.
  *
- * This implementation runs in time O(n log n).  The time bound
- * could be changed to O(n * ack(n)) with a small change to the link and eval,
- * and an addition of a child field to the DFS info. In reality, the constant
- * overheads are high enough that the current method is faster in all but the
- * strangest artificially constructed examples.
+ * The blocks reachable from the root are numbered in DFS postorder. Then,
+ * visiting them in reverse postorder, the immediate dominator of each block
+ * is found by intersecting the dominator tree paths of its predecessors,
+ * until a pass changes nothing. For the reducible graphs that come out of
+ * compilers that takes a couple of passes, so in practice this runs in
+ * near-linear time.
  *
- * The basic idea behind this algorithm is to perform a DFS walk, keeping track
- * of various info about parents.  We then use this info to calculate the
- * dominators, using union-find structures to link together the DFS info,
- * then finally evaluate the union-find results to get the dominators.
- * This implementation is m log n because it does not perform union by
- * rank to keep the union-find tree balanced.
+ * Everything is kept in int arrays indexed by postorder number, with the
+ * predecessor lists flattened into a single array, so beyond those arrays
+ * nothing gets allocated however large the method.
  */
 public final class Dominators {
+    /** marker in {@link #number} of a block on the DFS stack */
+    private static final int VISITING = -2;
+
     /* postdom is true if we want post dominators */
     private final boolean postdom;
 
@@ -50,14 +51,27 @@ public final class Dominators {
     /* Method's basic blocks. */
     private final ArrayList<SsaBasicBlock> blocks;
 
-    /** indexed by basic block index */
-    private final DFSInfo[] info;
+    /**
+     * postorder number of each block, indexed by basic block index;
+     * {@code -1} for blocks not reachable from the root
+     */
+    private final int[] number;
 
-    private final ArrayList<SsaBasicBlock> vertex;
+    /** basic block index of each reachable block, by postorder number */
+    private final int[] order;
+
+    /**
+     * immediate dominator of each reachable block, by postorder number
+     * of both; {@code -1} until known
+     */
+    private final int[] idom;
 
     /** {@code non-null;} the raw dominator info */
     private final DomFront.DomInfo domInfos[];
 
+    /** number of blocks reachable from the root */
+    private int count;
+
     /**
      * Constructs an instance.
      *
@@ -71,8 +85,11 @@ public final class Dominators {
         this.domInfos = domInfos;
         this.postdom = postdom;
         this.blocks = meth.getBlocks();
-        this.info = new DFSInfo[blocks.size() + 2];
-        this.vertex = new ArrayList<SsaBasicBlock>();
+
+        int szBlocks = blocks.size();
+        this.number = new int[szBlocks];
+        this.order = new int[szBlocks];
+        this.idom = new int[szBlocks];
     }
 
     /**
@@ -91,195 +108,197 @@ public final class Dominators {
         return result;
     }
 
-    private BitSet getSuccs(SsaBasicBlock block) {
-        if (postdom) {
-            return block.getPredecessors();
-        } else {
-            return block.getSuccessors();
+    /**
+     * Performs dominator/post-dominator calculation for the control
+     * flow graph.
+     */
+    private void run() {
+        SsaBasicBlock root = postdom
+                ? meth.getExitBlock() : meth.getEntryBlock();
+
+        if (root == null) {
+            return;
         }
-    }
 
-    private BitSet getPreds(SsaBasicBlock block) {
-        if (postdom) {
-            return block.getSuccessors();
-        } else {
-            return block.getPredecessors();
+        int szBlocks = blocks.size();
+        int[] succStart = new int[szBlocks + 1];
+        int[] succs = flattenEdges(blocks, postdom, succStart);
+
+        numberBlocks(root.getIndex(), succStart, succs);
+
+        /*
+         * Flatten the predecessor lists by postorder number, leaving out
+         * the blocks that aren't reachable.
+         */
+        int[] predStart = new int[count + 1];
+        for (int n = 0; n < count; n++) {
+            int b = order[n];
+            for (int at = succStart[b]; at < succStart[b + 1]; at++) {
+                predStart[number[succs[at]] + 1]++;
+            }
+        }
+        for (int n = 0; n < count; n++) {
+            predStart[n + 1] += predStart[n];
         }
-    }
 
-    /**
-     * Performs path compress on the DFS info.
-     *
-     * @param in Basic block whose DFS info we are path compressing.
-     */
-    private void compress(SsaBasicBlock in) {
-        DFSInfo bbInfo = info[in.getIndex()];
-        DFSInfo ancestorbbInfo = info[bbInfo.ancestor.getIndex()];
-
-        if (ancestorbbInfo.ancestor != null) {
-            ArrayList<SsaBasicBlock> worklist = new ArrayList<SsaBasicBlock>();
-            HashSet<SsaBasicBlock> visited = new HashSet<SsaBasicBlock>();
-            worklist.add(in);
-
-            while (!worklist.isEmpty()) {
-                int wsize = worklist.size();
-                SsaBasicBlock v = worklist.get(wsize - 1);
-                DFSInfo vbbInfo = info[v.getIndex()];
-                SsaBasicBlock vAncestor = vbbInfo.ancestor;
-                DFSInfo vabbInfo = info[vAncestor.getIndex()];
-
-                // Make sure we process our ancestor before ourselves.
-                if (visited.add(vAncestor) && vabbInfo.ancestor != null) {
-                    worklist.add(vAncestor);
-                    continue;
-                }
-                worklist.remove(wsize - 1);
+        int[] preds = new int[predStart[count]];
+        int[] fill = Arrays.copyOf(predStart, count);
+        for (int n = 0; n < count; n++) {
+            int b = order[n];
+            for (int at = succStart[b]; at < succStart[b + 1]; at++) {
+                preds[fill[number[succs[at]]]++] = n;
+            }
+        }
+
+        // The root is the last block in postorder.
+        int rootNumber = count - 1;
+        Arrays.fill(idom, 0, count, -1);
+        idom[rootNumber] = rootNumber;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            // Visit the blocks in reverse postorder, skipping the root.
+            for (int n = rootNumber - 1; n >= 0; n--) {
+                int newIdom = -1;
+
+                for (int at = predStart[n]; at < predStart[n + 1]; at++) {
+                    int pred = preds[at];
+
+                    // Predecessors not processed yet don't constrain it.
+                    if (idom[pred] == -1) {
+                        continue;
+                    }
 
-                // Update based on ancestor info.
-                if (vabbInfo.ancestor == null) {
-                    continue;
+                    newIdom = (newIdom == -1) ? pred : intersect(pred, newIdom);
                 }
-                SsaBasicBlock vAncestorRep = vabbInfo.rep;
-                SsaBasicBlock vRep = vbbInfo.rep;
-                if (info[vAncestorRep.getIndex()].semidom
-                        < info[vRep.getIndex()].semidom) {
-                    vbbInfo.rep = vAncestorRep;
+
+                if (idom[n] != newIdom) {
+                    idom[n] = newIdom;
+                    changed = true;
                 }
-                vbbInfo.ancestor = vabbInfo.ancestor;
             }
         }
-    }
-
-    private SsaBasicBlock eval(SsaBasicBlock v) {
-        DFSInfo bbInfo = info[v.getIndex()];
 
-        if (bbInfo.ancestor == null) {
-            return v;
+        for (int n = 0; n < count; n++) {
+            domInfos[order[n]].idom = order[idom[n]];
         }
-
-        compress(v);
-        return bbInfo.rep;
     }
 
     /**
-     * Performs dominator/post-dominator calculation for the control
-     * flow graph.
+     * Flattens the successor lists of the blocks, or the predecessor
+     * lists derived from them, into a single array. This takes time in
+     * proportion to the number of edges, whereas going through the
+     * successor and predecessor bit sets of the blocks would take time in
+     * proportion to the square of the number of blocks. Lists may hold
+     * a block more than once.
      *
-     * @param meth {@code non-null;} method to analyze
+     * @param blocks {@code non-null;} the blocks
+     * @param reverse whether to flatten predecessor lists rather than
+     * successor lists
+     * @param start {@code non-null;} array of size {@code blocks.size() + 1}
+     * to fill in with the offset of each block's list, and the total size
+     * @return {@code non-null;} the lists, holding block indices
      */
-    private void run() {
-        SsaBasicBlock root = postdom
-                ? meth.getExitBlock() : meth.getEntryBlock();
-
-        if (root != null) {
-            vertex.add(root);
-            domInfos[root.getIndex()].idom = root.getIndex();
-        }
-
-        /*
-         * First we perform a DFS numbering of the blocks, by
-         * numbering the dfs tree roots.
-         */
-
-        DfsWalker walker = new DfsWalker();
-        meth.forEachBlockDepthFirst(postdom, walker);
-
-        // the largest semidom number assigned
-        int dfsMax = vertex.size() - 1;
-
-        // Now calculate semidominators.
-        for (int i = dfsMax; i >= 2; --i) {
-            SsaBasicBlock w = vertex.get(i);
-            DFSInfo wInfo = info[w.getIndex()];
-
-            BitSet preds = getPreds(w);
-            for (int j = preds.nextSetBit(0);
-                 j >= 0;
-                 j = preds.nextSetBit(j + 1)) {
-                SsaBasicBlock predBlock = blocks.get(j);
-                DFSInfo predInfo = info[predBlock.getIndex()];
-
-                /*
-                 * PredInfo may not exist in case the predecessor is
-                 * not reachable.
-                 */
-                if (predInfo != null) {
-                    int predSemidom = info[eval(predBlock).getIndex()].semidom;
-                    if (predSemidom < wInfo.semidom) {
-                        wInfo.semidom = predSemidom;
-                    }
+    /*package*/ static int[] flattenEdges(ArrayList<SsaBasicBlock> blocks,
+            boolean reverse, int[] start) {
+        int szBlocks = blocks.size();
+
+        for (int b = 0; b < szBlocks; b++) {
+            IntList succList = blocks.get(b).getSuccessorList();
+            if (reverse) {
+                for (int i = 0, sz = succList.size(); i < sz; i++) {
+                    start[succList.get(i) + 1]++;
                 }
+            } else {
+                start[b + 1] = succList.size();
             }
-            info[vertex.get(wInfo.semidom).getIndex()].bucket.add(w);
-
-            /*
-             * Normally we would call link here, but in our O(m log n)
-             * implementation this is equivalent to the following
-             * single line.
-             */
-            wInfo.ancestor = wInfo.parent;
-
-            // Implicity define idom for each vertex.
-            ArrayList<SsaBasicBlock> wParentBucket;
-            wParentBucket = info[wInfo.parent.getIndex()].bucket;
-
-            while (!wParentBucket.isEmpty()) {
-                int lastItem = wParentBucket.size() - 1;
-                SsaBasicBlock last = wParentBucket.remove(lastItem);
-                SsaBasicBlock U = eval(last);
-                if (info[U.getIndex()].semidom
-                        < info[last.getIndex()].semidom) {
-                    domInfos[last.getIndex()].idom = U.getIndex();
+        }
+        for (int b = 0; b < szBlocks; b++) {
+            start[b + 1] += start[b];
+        }
+
+        int[] result = new int[start[szBlocks]];
+        int[] fill = Arrays.copyOf(start, szBlocks);
+        for (int b = 0; b < szBlocks; b++) {
+            IntList succList = blocks.get(b).getSuccessorList();
+            for (int i = 0, sz = succList.size(); i < sz; i++) {
+                int succ = succList.get(i);
+                if (reverse) {
+                    result[fill[succ]++] = b;
                 } else {
-                    domInfos[last.getIndex()].idom = wInfo.parent.getIndex();
+                    result[fill[b]++] = succ;
                 }
             }
         }
 
-        // Now explicitly define the immediate dominator of each vertex
-        for (int i =  2; i <= dfsMax; ++i) {
-            SsaBasicBlock w = vertex.get(i);
-            if (domInfos[w.getIndex()].idom
-                    != vertex.get(info[w.getIndex()].semidom).getIndex()) {
-                domInfos[w.getIndex()].idom
-                        = domInfos[domInfos[w.getIndex()].idom].idom;
-            }
-        }
+        return result;
     }
 
     /**
-     * Callback for depth-first walk through control flow graph (either
-     * from the entry block or the exit block). Records the traversal order
-     * in the {@code info}list.
+     * Numbers the blocks reachable from the root in DFS postorder, filling
+     * in {@link #number}, {@link #order} and {@link #count}.
+     *
+     * @param root {@code >= 0;} index of the root block
+     * @param succStart {@code non-null;} offset of each block's
+     * successors in {@code succs}
+     * @param succs {@code non-null;} the flattened successor lists
      */
-    private class DfsWalker implements SsaBasicBlock.Visitor {
-        private int dfsNum = 0;
-
-        public void visitBlock(SsaBasicBlock v, SsaBasicBlock parent) {
-            DFSInfo bbInfo = new DFSInfo();
-            bbInfo.semidom = ++dfsNum;
-            bbInfo.rep = v;
-            bbInfo.parent = parent;
-            vertex.add(v);
-            info[v.getIndex()] = bbInfo;
+    private void numberBlocks(int root, int[] succStart, int[] succs) {
+        int szBlocks = blocks.size();
+
+        // The blocks on the DFS stack, and the next edge to follow from each.
+        int[] stack = new int[szBlocks];
+        int[] nextSucc = new int[szBlocks];
+        int depth = 0;
+
+        Arrays.fill(number, -1);
+        count = 0;
+
+        number[root] = VISITING;
+        nextSucc[depth] = succStart[root];
+        stack[depth++] = root;
+
+        while (depth > 0) {
+            int b = stack[depth - 1];
+            int at = nextSucc[depth - 1];
+
+            if (at < succStart[b + 1]) {
+                int succ = succs[at];
+                nextSucc[depth - 1] = at + 1;
+                if (number[succ] == -1) {
+                    number[succ] = VISITING;
+                    nextSucc[depth] = succStart[succ];
+                    stack[depth++] = succ;
+                }
+            } else {
+                depth--;
+                number[b] = count;
+                order[count++] = b;
+            }
         }
     }
 
-    private static final class DFSInfo {
-        public int semidom;
-        public SsaBasicBlock parent;
-
-        /**
-         * rep(resentative) is known as "label" in the paper. It is the node
-         * that our block's DFS info has been unioned to.
-         */
-        public SsaBasicBlock rep;
-
-        public SsaBasicBlock ancestor;
-        public ArrayList<SsaBasicBlock> bucket;
-
-        public DFSInfo() {
-            bucket = new ArrayList<SsaBasicBlock>();
+    /**
+     * Finds the nearest common dominator of two blocks, walking up the
+     * dominator tree built so far. Since dominators have higher postorder
+     * numbers, this repeatedly moves up whichever block has the lower one.
+     *
+     * @param finger1 postorder number of one block
+     * @param finger2 postorder number of the other block
+     * @return postorder number of the nearest common dominator
+     */
+    private int intersect(int finger1, int finger2) {
+        while (finger1 != finger2) {
+            while (finger1 < finger2) {
+                finger1 = idom[finger1];
+            }
+            while (finger2 < finger1) {
+                finger2 = idom[finger2];
+            }
         }
+
+        return finger1;
     }
 }
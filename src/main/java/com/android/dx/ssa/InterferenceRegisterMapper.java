@@ -18,7 +18,6 @@ package com.android.dx.ssa;
 
 import com.android.dx.rop.code.RegisterSpecList;
 import com.android.dx.ssa.back.InterferenceGraph;
-import com.android.dx.util.BitIntSet;
 import com.android.dx.rop.code.RegisterSpec;
 import com.android.dx.util.IntSet;
 import java.util.ArrayList;
@@ -33,14 +32,18 @@ import java.util.ArrayList;
 public class InterferenceRegisterMapper extends BasicRegisterMapper {
     /**
      * Array of interference sets. ArrayList is indexed by new namespace
-     * and BitIntSet's are indexed by old namespace.  The list expands
+     * and the sets hold old namespace registers.  The list expands
      * as needed and missing items are assumed to interfere with nothing.
      *
-     * Bit sets are always used here, unlike elsewhere, because the max
-     * size of this matrix will be (countSsaRegs * countRopRegs), which may
-     * grow to hundreds of K but not megabytes.
+     * The sets come from {@link SetFactory#makeInterferenceSet}, so they
+     * are bit sets unless the old namespace is large, in which case their
+     * total size is bounded by the edge count of the interference graph
+     * rather than by (countSsaRegs * countRopRegs).
      */
-    private final ArrayList<BitIntSet> newRegInterference;
+    private final ArrayList<IntSet> newRegInterference;
+
+    /** {@code >= 0;} number of registers in the old namespace */
+    private final int countOldRegisters;
 
     /** the interference graph for the old namespace */
     private final InterferenceGraph oldRegInterference;
@@ -54,8 +57,9 @@ public class InterferenceRegisterMapper extends BasicRegisterMapper {
             int countOldRegisters) {
         super(countOldRegisters);
 
-        newRegInterference = new ArrayList<BitIntSet>();
+        newRegInterference = new ArrayList<IntSet>();
         this.oldRegInterference = oldRegInterference;
+        this.countOldRegisters = countOldRegisters;
     }
 
     /** {@inheritDoc} */
@@ -119,7 +123,8 @@ public class InterferenceRegisterMapper extends BasicRegisterMapper {
         newRegInterference.ensureCapacity(newReg + 1);
 
         while (newReg >= newRegInterference.size()) {
-            newRegInterference.add(new BitIntSet(newReg +1));
+            newRegInterference.add(
+                    SetFactory.makeInterferenceSet(countOldRegisters));
         }
 
         oldRegInterference.mergeInterferenceSet(
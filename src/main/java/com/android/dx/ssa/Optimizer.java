@@ -20,6 +20,7 @@ import com.android.dx.rop.code.RopMethod;
 import com.android.dx.rop.code.TranslationAdvice;
 import com.android.dx.ssa.back.LivenessAnalyzer;
 import com.android.dx.ssa.back.SsaToRop;
+import com.android.dx.util.TimeBudget;
 
 import java.util.EnumSet;
 
@@ -152,16 +153,21 @@ public class Optimizer {
             EnumSet<OptionalStep> steps) {
         boolean needsDeadCodeRemover = true;
 
+        TimeBudget.check();
+
         if (steps.contains(OptionalStep.MOVE_PARAM_COMBINER)) {
             MoveParamCombiner.process(ssaMeth);
         }
 
         if (steps.contains(OptionalStep.SCCP)) {
             SCCP.process(ssaMeth);
+            TimeBudget.check();
             DeadCodeRemover.process(ssaMeth);
             needsDeadCodeRemover = false;
         }
 
+        TimeBudget.check();
+
         if (steps.contains(OptionalStep.LITERAL_UPGRADE)) {
             LiteralOpUpgrader.process(ssaMeth);
             DeadCodeRemover.process(ssaMeth);
@@ -190,6 +196,7 @@ public class Optimizer {
         }
 
         PhiTypeResolver.process(ssaMeth);
+        TimeBudget.check();
     }
 
     public static SsaMethod debugEdgeSplit(RopMethod rmeth, int paramWidth,
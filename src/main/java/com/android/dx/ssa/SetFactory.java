@@ -18,6 +18,7 @@ package com.android.dx.ssa;
 
 import com.android.dx.util.ListIntSet;
 import com.android.dx.util.BitIntSet;
+import com.android.dx.util.HashIntSet;
 import com.android.dx.util.IntSet;
 
 
@@ -27,17 +28,9 @@ import com.android.dx.util.IntSet;
 public final class SetFactory {
 
     /**
-     * BitIntSet/ListIntSet threshold for dominance frontier sets. These
-     * sets are kept per basic block until phi placement and tend to be,
-     * like the CFG itself, very sparse at large sizes.
-     *
-     * A value of 3072 here is somewhere around 1.125mb of total bitset size.
-     */
-    private static final int DOMFRONT_SET_THRESHOLD_SIZE = 3072;
-
-    /**
-     * BitIntSet/ListIntSet threshold for interference graph sets. These
-     * sets are kept per register until register allocation is done.
+     * BitIntSet/HashIntSet threshold for sets of interfering registers,
+     * such as those kept per new register by
+     * {@link InterferenceRegisterMapper} until register allocation is done.
      *
      * A value of 3072 here is somewhere around 1.125mb of total bitset size.
      */
@@ -57,28 +50,18 @@ public final class SetFactory {
 
 
     /**
-     * Make IntSet for the dominance-frontier sets.
-     *
-     * @param szBlocks {@code >=0;} count of basic blocks in method
-     * @return {@code non-null;} appropriate set
-     */
-    /*package*/ static IntSet makeDomFrontSet(int szBlocks) {
-        return szBlocks <= DOMFRONT_SET_THRESHOLD_SIZE
-                ? new BitIntSet(szBlocks)
-                : new ListIntSet();
-    }
-
-    /**
-     * Make IntSet for the interference graph sets. Public because
-     * InterferenceGraph is in another package.
+     * Make IntSet for sets of interfering registers. Above the threshold
+     * these are hashed, since they are merged into and tested often, and
+     * the {@link ListIntSet} used for the other large sets would make each
+     * of those linear.
      *
      * @param countRegs {@code >=0;} count of SSA registers used in method
      * @return {@code non-null;} appropriate set
      */
-    public static IntSet makeInterferenceSet(int countRegs) {
+    /*package*/ static IntSet makeInterferenceSet(int countRegs) {
         return countRegs <= INTERFERENCE_SET_THRESHOLD_SIZE
                 ? new BitIntSet(countRegs)
-                : new ListIntSet();
+                : new HashIntSet();
     }
 
     /**
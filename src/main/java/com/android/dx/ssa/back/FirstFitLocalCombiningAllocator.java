@@ -34,6 +34,7 @@ import com.android.dx.ssa.PhiInsn;
 import com.android.dx.ssa.SsaInsn;
 import com.android.dx.ssa.SsaMethod;
 import com.android.dx.util.IntSet;
+import com.android.dx.util.TimeBudget;
 
 import java.util.ArrayList;
 import java.util.BitSet;
@@ -195,6 +196,8 @@ public class FirstFitLocalCombiningAllocator extends RegisterAllocator {
         if (DEBUG) System.out.println("--->Mapping phis");
         handlePhiInsns();
 
+        TimeBudget.check();
+
         if (DEBUG) System.out.println("--->Mapping others");
         handleNormalUnassociated();
 
@@ -632,6 +635,8 @@ public class FirstFitLocalCombiningAllocator extends RegisterAllocator {
 
             if (ssaSpec == null) continue;
 
+            TimeBudget.check();
+
             int category = ssaSpec.getCategory();
             // Find a rop reg that does not interfere
             int ropReg = findNextUnreservedRopReg(paramRangeEnd, category);
@@ -16,20 +16,22 @@
 
 package com.android.dx.ssa.back;
 
-import com.android.dx.ssa.SetFactory;
+import com.android.dx.util.HashIntSet;
 import com.android.dx.util.IntSet;
 
 import java.util.ArrayList;
 
 /**
- * A register interference graph
+ * A register interference graph. Each register keeps its neighbours in a
+ * {@link HashIntSet}, so the graph takes space and time proportional to
+ * its edge count however many registers the method has.
  */
 public class InterferenceGraph {
     /**
-     * {@code non-null;} interference graph, indexed by register in
-     * both dimensions
+     * {@code non-null;} interference graph, indexed by register; each set
+     * holds the registers interfering with its index
      */
-    private final ArrayList<IntSet> interference;
+    private final ArrayList<HashIntSet> interference;
 
     /**
      * Creates a new graph.
@@ -38,10 +40,10 @@ public class InterferenceGraph {
      * the namespace. New registers can be added subsequently.
      */
     public InterferenceGraph(int countRegs) {
-        interference = new ArrayList<IntSet>(countRegs);
+        interference = new ArrayList<HashIntSet>(countRegs);
 
         for (int i = 0; i < countRegs; i++) {
-            interference.add(SetFactory.makeInterferenceSet(countRegs));
+            interference.add(new HashIntSet());
         }
     }
 
@@ -98,7 +100,7 @@ public class InterferenceGraph {
         interference.ensureCapacity(size);
 
         for (int i = countRegs; i < size; i++) {
-            interference.add(SetFactory.makeInterferenceSet(size));
+            interference.add(new HashIntSet());
         }
     }
 }
@@ -21,6 +21,7 @@ import com.android.dx.ssa.SsaBasicBlock;
 import com.android.dx.rop.code.RegisterSpec;
 import com.android.dx.ssa.SsaInsn;
 import com.android.dx.ssa.SsaMethod;
+import com.android.dx.util.TimeBudget;
 
 import java.util.ArrayList;
 import java.util.BitSet;
@@ -91,6 +92,7 @@ public class LivenessAnalyzer {
         InterferenceGraph interference = new InterferenceGraph(szRegs);
 
         for (int i = 0; i < szRegs; i++) {
+            TimeBudget.check();
             new LivenessAnalyzer(ssaMeth, i, interference).run();
         }
 
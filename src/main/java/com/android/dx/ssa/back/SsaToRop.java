@@ -32,6 +32,7 @@ import com.android.dx.ssa.SsaInsn;
 import com.android.dx.ssa.SsaMethod;
 import com.android.dx.util.Hex;
 import com.android.dx.util.IntList;
+import com.android.dx.util.PhaseTimer;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -45,6 +46,10 @@ public class SsaToRop {
     /** local debug flag */
     private static final boolean DEBUG = false;
 
+    /** {@code non-null;} time spent allocating registers */
+    private static final PhaseTimer REGISTER_ALLOCATION_TIMER =
+        new PhaseTimer("registerAllocation");
+
     /** {@code non-null;} method to process */
     private final SsaMethod ssaMeth;
 
@@ -102,7 +107,9 @@ public class SsaToRop {
             new FirstFitLocalCombiningAllocator(ssaMeth, interference,
                     minimizeRegisters);
 
+        long start = REGISTER_ALLOCATION_TIMER.start();
         RegisterMapper mapper = allocator.allocateRegisters();
+        REGISTER_ALLOCATION_TIMER.end(start);
 
         if (DEBUG) {
             System.out.println("Printing reg map");
@@ -83,6 +83,21 @@ public class BitIntSet implements IntSet {
             for (int i = 0; i < o.ints.size(); i++) {
                 Bits.set(bits, o.ints.get(i), true);
             }
+        } else if (other instanceof HashIntSet) {
+            HashIntSet o = (HashIntSet) other;
+            int max = -1;
+
+            for (int value : o.table) {
+                max = Math.max(max, value);
+            }
+            if (max >= 0) {
+                ensureCapacity(max);
+            }
+            for (int value : o.table) {
+                if (value >= 0) {
+                    Bits.set(bits, value, true);
+                }
+            }
         } else {
             IntIterator iter = other.iterator();
             while (iter.hasNext()) {
@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import com.android.dex.Leb128;
+import com.android.dex.util.ByteOutput;
+import com.android.dex.util.ExceptionWithContext;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Implementation of {@link AnnotatedOutput} which streams the written
+ * data to a {@link WritableByteChannel} through a fixed-size buffer, so
+ * that the memory used doesn't depend on the amount of data written. It
+ * never keeps annotations.
+ *
+ * <p>{@link IOException}s from the channel are rethrown wrapped in an
+ * {@link ExceptionWithContext}, since the {@link Output} methods can't
+ * throw checked exceptions.</p>
+ *
+ * <p><b>Note:</b> As per the {@link Output} interface, multi-byte
+ * writes all use little-endian order.</p>
+ */
+public final class ByteChannelOutput
+        implements AnnotatedOutput, ByteOutput {
+    /** default size of the buffer */
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    /** {@code non-null;} where the data goes */
+    private final WritableByteChannel channel;
+
+    /** {@code non-null;} the buffer */
+    private final byte[] buffer;
+
+    /** {@code non-null;} {@link #buffer}, wrapped for the channel */
+    private final ByteBuffer byteBuffer;
+
+    /** {@code >= 0;} number of bytes in {@link #buffer} */
+    private int buffered;
+
+    /** {@code >= 0;} current output cursor */
+    private int cursor;
+
+    /**
+     * Constructs an instance with a default buffer size.
+     *
+     * @param channel {@code non-null;} where to write the data
+     */
+    public ByteChannelOutput(WritableByteChannel channel) {
+        this(channel, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs an instance.
+     *
+     * @param channel {@code non-null;} where to write the data
+     * @param bufferSize {@code >= 8;} size of the buffer
+     */
+    public ByteChannelOutput(WritableByteChannel channel, int bufferSize) {
+        if (channel == null) {
+            throw new NullPointerException("channel == null");
+        }
+
+        if (bufferSize < 8) {
+            throw new IllegalArgumentException("bufferSize < 8");
+        }
+
+        this.channel = channel;
+        this.buffer = new byte[bufferSize];
+        this.byteBuffer = ByteBuffer.wrap(buffer);
+        this.buffered = 0;
+        this.cursor = 0;
+    }
+
+    /**
+     * Writes any buffered data to the channel.
+     */
+    public void flush() {
+        byteBuffer.clear();
+        byteBuffer.limit(buffered);
+
+        try {
+            while (byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+        } catch (IOException ex) {
+            throw new ExceptionWithContext(ex);
+        }
+
+        Arrays.fill(buffer, 0, buffered, (byte) 0);
+        buffered = 0;
+    }
+
+    /** {@inheritDoc} */
+    public int getCursor() {
+        return cursor;
+    }
+
+    /** {@inheritDoc} */
+    public void assertCursor(int expectedCursor) {
+        if (cursor != expectedCursor) {
+            throw new ExceptionWithContext("expected cursor " +
+                    expectedCursor + "; actual value: " + cursor);
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void writeByte(int value) {
+        ensureRoom(1);
+        buffer[buffered++] = (byte) value;
+        cursor++;
+    }
+
+    /** {@inheritDoc} */
+    public void writeShort(int value) {
+        ensureRoom(2);
+        buffer[buffered] = (byte) value;
+        buffer[buffered + 1] = (byte) (value >> 8);
+        buffered += 2;
+        cursor += 2;
+    }
+
+    /** {@inheritDoc} */
+    public void writeInt(int value) {
+        ensureRoom(4);
+        buffer[buffered] = (byte) value;
+        buffer[buffered + 1] = (byte) (value >> 8);
+        buffer[buffered + 2] = (byte) (value >> 16);
+        buffer[buffered + 3] = (byte) (value >> 24);
+        buffered += 4;
+        cursor += 4;
+    }
+
+    /** {@inheritDoc} */
+    public void writeLong(long value) {
+        writeInt((int) value);
+        writeInt((int) (value >> 32));
+    }
+
+    /** {@inheritDoc} */
+    public int writeUleb128(int value) {
+        int cursorBefore = cursor;
+        Leb128.writeUnsignedLeb128(this, value);
+        return (cursor - cursorBefore);
+    }
+
+    /** {@inheritDoc} */
+    public int writeSleb128(int value) {
+        int cursorBefore = cursor;
+        Leb128.writeSignedLeb128(this, value);
+        return (cursor - cursorBefore);
+    }
+
+    /** {@inheritDoc} */
+    public void write(ByteArray bytes) {
+        ByteArray.MyInputStream in = bytes.makeInputStream();
+        int remaining = bytes.size();
+
+        while (remaining > 0) {
+            if (buffered == buffer.length) {
+                flush();
+            }
+            int count = in.read(buffer, buffered,
+                    Math.min(remaining, buffer.length - buffered));
+            buffered += count;
+            cursor += count;
+            remaining -= count;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes, int offset, int length) {
+        int end = cursor + length;
+        int bytesEnd = offset + length;
+
+        // twos-complement math trick: ((x < 0) || (y < 0)) <=> ((x|y) < 0)
+        if (((offset | length | end) < 0) || (bytesEnd > bytes.length)) {
+            throw new IndexOutOfBoundsException("bytes.length " +
+                                                bytes.length + "; " +
+                                                offset + "..!" + end);
+        }
+
+        while (length > 0) {
+            if (buffered == buffer.length) {
+                flush();
+            }
+            int count = Math.min(length, buffer.length - buffered);
+            System.arraycopy(bytes, offset, buffer, buffered, count);
+            buffered += count;
+            cursor += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    /** {@inheritDoc} */
+    public void writeZeroes(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0");
+        }
+
+        /*
+         * The unused part of the buffer is always zeroed, so this only
+         * has to move the cursor along, flushing whenever it's full.
+         */
+        while (count > 0) {
+            if (buffered == buffer.length) {
+                flush();
+            }
+            int amt = Math.min(count, buffer.length - buffered);
+            buffered += amt;
+            cursor += amt;
+            count -= amt;
+        }
+    }
+
+    /** {@inheritDoc} */
+    public void alignTo(int alignment) {
+        int mask = alignment - 1;
+
+        if ((alignment < 0) || ((mask & alignment) != 0)) {
+            throw new IllegalArgumentException("bogus alignment");
+        }
+
+        writeZeroes(((cursor + mask) & ~mask) - cursor);
+    }
+
+    /** {@inheritDoc} */
+    public boolean annotates() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public boolean isVerbose() {
+        return false;
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void annotate(int amt, String msg) {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public void endAnnotation() {
+        // This space intentionally left blank.
+    }
+
+    /** {@inheritDoc} */
+    public int getAnnotationWidth() {
+        return 0;
+    }
+
+    /**
+     * Makes sure there is room in the buffer for a write of
+     * {@code count} bytes, flushing it if not.
+     */
+    private void ensureRoom(int count) {
+        if (buffered + count > buffer.length) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of non-negative integers, represented by an open-addressing hash
+ * table. Unlike {@link BitIntSet} its size depends only on the number of
+ * elements, not on their magnitude, and unlike {@link ListIntSet} adding
+ * and testing take constant time, which makes it suitable for large sparse
+ * sets such as the neighbours of a register in an interference graph.
+ * Iteration order is unspecified.
+ */
+public final class HashIntSet implements IntSet {
+    /** marker of a free slot */
+    private static final int FREE = -1;
+
+    /** minimum size of {@link #table} */
+    private static final int MIN_CAPACITY = 4;
+
+    /**
+     * {@code non-null;} the slots, whose count is a power of two and at
+     * least twice the element count; also accessed in BitIntSet
+     */
+    int[] table;
+
+    /** {@code >= 0;} number of elements */
+    private int size;
+
+    /**
+     * Constructs an empty instance.
+     */
+    public HashIntSet() {
+        this(0);
+    }
+
+    /**
+     * Constructs an empty instance with room for the given number of
+     * elements before it has to grow.
+     *
+     * @param expectedSize {@code >= 0;} expected number of elements
+     */
+    public HashIntSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * expectedSize) {
+            capacity <<= 1;
+        }
+
+        table = new int[capacity];
+        Arrays.fill(table, FREE);
+    }
+
+    /** @inheritDoc */
+    public void add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("value < 0");
+        }
+
+        int mask = table.length - 1;
+        int i = hash(value) & mask;
+
+        while (table[i] != FREE) {
+            if (table[i] == value) {
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        table[i] = value;
+        size++;
+
+        if (2 * size > table.length) {
+            rehash(table.length << 1);
+        }
+    }
+
+    /** @inheritDoc */
+    public void remove(int value) {
+        int mask = table.length - 1;
+        int i = indexOf(value);
+
+        if (i < 0) {
+            return;
+        }
+
+        /*
+         * Shift back the following entries of the probe run that are no
+         * longer reachable from their home slot, rather than leaving a
+         * tombstone.
+         */
+        int hole = i;
+        for (int j = (i + 1) & mask; table[j] != FREE; j = (j + 1) & mask) {
+            int home = hash(table[j]) & mask;
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                table[hole] = table[j];
+                hole = j;
+            }
+        }
+
+        table[hole] = FREE;
+        size--;
+    }
+
+    /** @inheritDoc */
+    public boolean has(int value) {
+        return indexOf(value) >= 0;
+    }
+
+    /** @inheritDoc */
+    public void merge(IntSet other) {
+        if (other instanceof HashIntSet) {
+            for (int value : ((HashIntSet) other).table) {
+                if (value != FREE) {
+                    add(value);
+                }
+            }
+        } else {
+            IntIterator iter = other.iterator();
+            while (iter.hasNext()) {
+                add(iter.next());
+            }
+        }
+    }
+
+    /** @inheritDoc */
+    public int elements() {
+        return size;
+    }
+
+    /** @inheritDoc */
+    public IntIterator iterator() {
+        return new IntIterator() {
+            private int idx = nextSlot(0);
+
+            /** @inheritDoc */
+            public boolean hasNext() {
+                return idx < table.length;
+            }
+
+            /** @inheritDoc */
+            public int next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                int ret = table[idx];
+
+                idx = nextSlot(idx + 1);
+
+                return ret;
+            }
+        };
+    }
+
+    /** @inheritDoc */
+    @Override
+    public String toString() {
+        int[] values = new int[size];
+        int at = 0;
+
+        for (int value : table) {
+            if (value != FREE) {
+                values[at++] = value;
+            }
+        }
+
+        Arrays.sort(values);
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append('{');
+
+        for (int i = 0; i < values.length; i++) {
+            if (i != 0) {
+                sb.append(", ");
+            }
+            sb.append(values[i]);
+        }
+
+        sb.append('}');
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the index of the first used slot at or after {@code from},
+     * or {@code table.length} if there is none.
+     */
+    private int nextSlot(int from) {
+        int i = from;
+        while (i < table.length && table[i] == FREE) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the slot holding {@code value}, or {@code -1} if it is not
+     * in the set.
+     */
+    private int indexOf(int value) {
+        if (value < 0) {
+            return -1;
+        }
+
+        int mask = table.length - 1;
+        int i = hash(value) & mask;
+
+        while (table[i] != FREE) {
+            if (table[i] == value) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Moves the elements to a table with {@code capacity} slots.
+     */
+    private void rehash(int capacity) {
+        int[] old = table;
+        int mask = capacity - 1;
+
+        table = new int[capacity];
+        Arrays.fill(table, FREE);
+
+        for (int value : old) {
+            if (value != FREE) {
+                int i = hash(value) & mask;
+                while (table[i] != FREE) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = value;
+            }
+        }
+    }
+
+    /**
+     * Scrambles a value, so that runs of consecutive register numbers
+     * don't end up in runs of consecutive slots.
+     */
+    private static int hash(int value) {
+        int h = value * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+/**
+ * Map from {@code int} keys to {@code int} values, using open addressing
+ * with linear probing over parallel arrays. Unlike a
+ * {@code HashMap<Integer, Integer>}, neither lookups nor insertions of
+ * existing keys allocate.
+ *
+ * <p>Instances are not synchronized; once no more entries are being added,
+ * any number of threads may read concurrently.</p>
+ */
+public final class IntIntMap {
+    /** the key marking a free slot; mapped separately if used as a key */
+    private static final int FREE_KEY = 0;
+
+    /** the table is grown once it is more than this fraction full */
+    private static final float LOAD_FACTOR = 0.5f;
+
+    /** {@code non-null;} the keys, {@link #FREE_KEY} in free slots */
+    private int[] keys;
+
+    /** {@code non-null;} the values, parallel to {@link #keys} */
+    private int[] values;
+
+    /** {@code >= 0;} number of entries, excluding one for {@link #FREE_KEY} */
+    private int size;
+
+    /** the number of entries at which the table is grown */
+    private int threshold;
+
+    /** whether {@link #FREE_KEY} is mapped */
+    private boolean hasFreeKey;
+
+    /** the value of {@link #FREE_KEY}, if {@link #hasFreeKey} */
+    private int freeKeyValue;
+
+    /**
+     * Constructs an empty instance with a default initial capacity.
+     */
+    public IntIntMap() {
+        this(16);
+    }
+
+    /**
+     * Constructs an empty instance.
+     *
+     * @param expectedSize {@code >= 0;} the number of entries the map should
+     * hold without growing
+     */
+    public IntIntMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize < 0");
+        }
+
+        int capacity = Integer.highestOneBit(
+                Math.max(4, (int) (expectedSize / LOAD_FACTOR)) * 2 - 1);
+        allocate(capacity);
+    }
+
+    /**
+     * Gets the number of entries in this map.
+     *
+     * @return {@code >= 0;} the size
+     */
+    public int size() {
+        return hasFreeKey ? size + 1 : size;
+    }
+
+    /**
+     * Returns whether {@code key} is mapped.
+     *
+     * @param key the key
+     * @return {@code true} iff the key has a value
+     */
+    public boolean containsKey(int key) {
+        if (key == FREE_KEY) {
+            return hasFreeKey;
+        }
+
+        return keys[indexOf(key)] == key;
+    }
+
+    /**
+     * Gets the value mapped to {@code key}.
+     *
+     * @param key the key
+     * @param defaultValue the value to return if {@code key} isn't mapped
+     * @return the mapped value or {@code defaultValue}
+     */
+    public int get(int key, int defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeKeyValue : defaultValue;
+        }
+
+        int index = indexOf(key);
+        return keys[index] == key ? values[index] : defaultValue;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}, replacing any previous value.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public void put(int key, int value) {
+        if (key == FREE_KEY) {
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return;
+        }
+
+        int index = indexOf(key);
+        if (keys[index] == key) {
+            values[index] = value;
+            return;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        size++;
+
+        if (size > threshold) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or the free slot where it would
+     * be inserted.
+     */
+    private int indexOf(int key) {
+        int mask = keys.length - 1;
+        int index = mix(key) & mask;
+
+        while (true) {
+            int k = keys[index];
+            if (k == key || k == FREE_KEY) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    /**
+     * Spreads the bits of {@code key}; dex offsets are four byte aligned and
+     * clustered, so their low bits alone make for poor slot indices.
+     */
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+
+        allocate(newCapacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int index = indexOf(key);
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+}
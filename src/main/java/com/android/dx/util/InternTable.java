@@ -0,0 +1,353 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Thread-safe table of canonical instances, shared by the intern methods of
+ * the constant and type classes. Lookups of present keys take no lock, and
+ * when several threads race to add the same key they all get the instance
+ * that was published first, so interned values may be compared with
+ * {@code ==}.
+ *
+ * <p>A table never holds on to values for the life of the process. A
+ * <i>weak</i> table only refers weakly to its values, so that a value is
+ * dropped once nothing else refers to it; since no one can then compare
+ * against it, this keeps values canonical. Other tables may be given a
+ * limit, past which they start a new, empty generation; that is only
+ * valid for tables whose users don't rely on identity, such as caches.</p>
+ *
+ * <p>Every table registers itself by name so that hit, miss and size
+ * counts can be reported for all of them; see {@link #getAll}.</p>
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the interned values
+ */
+public final class InternTable<K, V> {
+    /** {@code non-null;} all tables created so far, in creation order */
+    private static final List<InternTable<?, ?>> ALL =
+        new CopyOnWriteArrayList<InternTable<?, ?>>();
+
+    /**
+     * {@code >= 0;} limit given to tables that aren't weak when they are
+     * created; see {@link #setDefaultLimit}
+     */
+    private static volatile int defaultLimit = 0;
+
+    /** {@code non-null;} name of this table, for reporting */
+    private final String name;
+
+    /** initial capacity of each generation of the table */
+    private final int initialCapacity;
+
+    /**
+     * {@code null-ok;} queue of the collected values of a weak table, or
+     * {@code null} if this table refers strongly to its values
+     */
+    private final ReferenceQueue<V> collected;
+
+    /**
+     * {@code non-null;} the table proper, mapping keys to values, or to
+     * {@link ValueRef}s of the values in a weak table
+     */
+    private volatile ConcurrentHashMap<K, Object> table;
+
+    /**
+     * {@code >= 0;} number of values after which a new generation of the
+     * table is started, or {@code 0} to let it grow without bound
+     */
+    private volatile int limit;
+
+    /** number of lookups that found an interned value */
+    private final LongCounter hits = new LongCounter();
+
+    /** number of lookups that didn't */
+    private final LongCounter misses = new LongCounter();
+
+    /**
+     * Constructs an instance which refers strongly to its values, and
+     * registers it.
+     *
+     * @param name {@code non-null;} name of the table, for reporting
+     * @param initialCapacity {@code >= 0;} initial capacity of the table
+     */
+    public InternTable(String name, int initialCapacity) {
+        this(name, initialCapacity, false);
+    }
+
+    /**
+     * Constructs an instance and registers it.
+     *
+     * @param name {@code non-null;} name of the table, for reporting
+     * @param initialCapacity {@code >= 0;} initial capacity of the table
+     * @param weak whether the table refers only weakly to its values
+     */
+    public InternTable(String name, int initialCapacity, boolean weak) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+
+        this.name = name;
+        this.initialCapacity = initialCapacity;
+        this.collected = weak ? new ReferenceQueue<V>() : null;
+        this.table = new ConcurrentHashMap<K, Object>(initialCapacity);
+        this.limit = weak ? 0 : defaultLimit;
+        ALL.add(this);
+    }
+
+    /**
+     * Returns every table created so far, in creation order.
+     *
+     * @return {@code non-null;} the tables
+     */
+    public static List<InternTable<?, ?>> getAll() {
+        return new ArrayList<InternTable<?, ?>>(ALL);
+    }
+
+    /**
+     * Gives every table that isn't weak, including the ones created from
+     * now on, the same limit. See {@link #setLimit}.
+     *
+     * @param limit {@code >= 0;} the maximum table size, or {@code 0} for
+     * no limit
+     */
+    public static void setDefaultLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit < 0");
+        }
+
+        defaultLimit = limit;
+        for (InternTable<?, ?> table : ALL) {
+            if (!table.isWeak()) {
+                table.setLimit(limit);
+            }
+        }
+    }
+
+    /**
+     * Gets the interned value for {@code key}, counting a hit or a miss.
+     *
+     * @param key {@code non-null;} the key
+     * @return {@code null-ok;} the interned value, or {@code null} if
+     * there is none yet
+     */
+    public V get(K key) {
+        V result = valueOf(table.get(key));
+
+        if (result != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+
+        return result;
+    }
+
+    /**
+     * Interns {@code value} under {@code key} unless a value is already
+     * interned there.
+     *
+     * @param key {@code non-null;} the key
+     * @param value {@code non-null;} the candidate value
+     * @return {@code non-null;} the interned value, which is {@code value}
+     * itself unless another one was interned first
+     */
+    public V putIfAbsent(K key, V value) {
+        ConcurrentHashMap<K, Object> current = table;
+
+        if (collected == null) {
+            Object already = current.putIfAbsent(key, value);
+            if (already != null) {
+                return valueOf(already);
+            }
+
+            int max = limit;
+            if (max > 0 && current.size() > max) {
+                // Start a new generation; values from the old one stay valid.
+                table = new ConcurrentHashMap<K, Object>(initialCapacity);
+            }
+            return value;
+        }
+
+        expunge();
+
+        ValueRef<K, V> ref = new ValueRef<K, V>(key, value, collected);
+        while (true) {
+            Object already = current.putIfAbsent(key, ref);
+            if (already == null) {
+                return value;
+            }
+
+            V alreadyValue = valueOf(already);
+            if (alreadyValue != null) {
+                return alreadyValue;
+            }
+
+            // The value there was collected; take its place.
+            if (current.replace(key, already, ref)) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Bounds this table, for long-running processes that would otherwise
+     * accumulate values from every class ever translated. Once the table
+     * holds more than {@code limit} values it is replaced by an empty
+     * one. Weak tables can't be given a limit, since they are bounded by
+     * what is still in use, and starting afresh would break identity.
+     *
+     * @param limit {@code >= 0;} the maximum table size, or {@code 0} for
+     * no limit
+     */
+    public void setLimit(int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit < 0");
+        }
+
+        if (collected != null) {
+            throw new IllegalStateException("weak table");
+        }
+
+        this.limit = limit;
+    }
+
+    /**
+     * Gets whether this table refers only weakly to its values.
+     *
+     * @return whether this table is weak
+     */
+    public boolean isWeak() {
+        return collected != null;
+    }
+
+    /**
+     * Removes all entries. Only valid for tables whose users don't rely on
+     * identity across the clear.
+     */
+    public void clear() {
+        if (collected != null) {
+            throw new IllegalStateException("weak table");
+        }
+
+        table = new ConcurrentHashMap<K, Object>(initialCapacity);
+    }
+
+    /**
+     * Resets the hit and miss counters.
+     */
+    public void resetCounters() {
+        hits.reset();
+        misses.reset();
+    }
+
+    /**
+     * Gets the name of this table.
+     *
+     * @return {@code non-null;} the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of interned values.
+     *
+     * @return {@code >= 0;} the size
+     */
+    public int size() {
+        expunge();
+        return table.size();
+    }
+
+    /**
+     * Gets the number of lookups that found an interned value.
+     *
+     * @return {@code >= 0;} the hit count
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Gets the number of lookups that didn't find an interned value.
+     *
+     * @return {@code >= 0;} the miss count
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Gets the value an entry of the table stands for.
+     *
+     * @param entry {@code null-ok;} the entry
+     * @return {@code null-ok;} its value, or {@code null} if there is no
+     * entry or its value was collected
+     */
+    @SuppressWarnings("unchecked")
+    private V valueOf(Object entry) {
+        if (entry instanceof ValueRef) {
+            return ((ValueRef<K, V>) entry).get();
+        }
+
+        return (V) entry;
+    }
+
+    /**
+     * Removes the entries of a weak table whose values were collected.
+     */
+    @SuppressWarnings("unchecked")
+    private void expunge() {
+        if (collected == null) {
+            return;
+        }
+
+        for (Object ref = collected.poll(); ref != null;
+             ref = collected.poll()) {
+            ValueRef<K, V> valueRef = (ValueRef<K, V>) ref;
+            table.remove(valueRef.key, valueRef);
+        }
+    }
+
+    /**
+     * Weak reference to a value of a weak table, which remembers its key
+     * so that the entry can be removed once the value is collected.
+     */
+    private static final class ValueRef<K, V> extends WeakReference<V> {
+        /** {@code non-null;} the key of the entry */
+        private final K key;
+
+        ValueRef(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return name + ": size " + size() + ", hits " + getHits()
+            + ", misses " + getMisses();
+    }
+}
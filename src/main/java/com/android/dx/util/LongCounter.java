@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that many threads may increment concurrently without contending
+ * on a single memory location. Increments are spread over a fixed number of
+ * padded cells selected by thread id, and {@link #get} sums the cells. This
+ * plays the role of {@code java.util.concurrent.atomic.LongAdder}, which
+ * isn't available at this source level.
+ */
+public final class LongCounter {
+    /** number of cells; a power of two */
+    private static final int CELL_COUNT = 16;
+
+    /** distance in longs between used cells, to keep them on separate cache lines */
+    private static final int CELL_STRIDE = 8;
+
+    /** {@code non-null;} the cells, only every {@link #CELL_STRIDE}th is used */
+    private final AtomicLongArray cells = new AtomicLongArray(CELL_COUNT * CELL_STRIDE);
+
+    /**
+     * Adds {@code delta} to this counter.
+     *
+     * @param delta the amount to add
+     */
+    public void add(long delta) {
+        int cell = (int) Thread.currentThread().getId() & (CELL_COUNT - 1);
+        cells.addAndGet(cell * CELL_STRIDE, delta);
+    }
+
+    /**
+     * Adds one to this counter.
+     */
+    public void increment() {
+        add(1);
+    }
+
+    /**
+     * Returns the current sum. Increments that race with this call may or
+     * may not be included.
+     *
+     * @return the sum of all increments so far
+     */
+    public long get() {
+        long sum = 0;
+        for (int i = 0; i < CELL_COUNT; i++) {
+            sum += cells.get(i * CELL_STRIDE);
+        }
+        return sum;
+    }
+
+    /**
+     * Resets this counter to zero. Increments that race with this call may
+     * or may not be lost.
+     */
+    public void reset() {
+        for (int i = 0; i < CELL_COUNT; i++) {
+            cells.set(i * CELL_STRIDE, 0);
+        }
+    }
+}
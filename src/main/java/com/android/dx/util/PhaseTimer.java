@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Accumulates the time spent in one phase of processing, over any number
+ * of threads. Times are summed per thread, so with several threads the
+ * total may exceed the wall time. Phases may nest; the time of a nested
+ * phase is included in that of its enclosing one.
+ *
+ * <p>Timing is off unless {@link #setEnabled} turns it on, in which case
+ * each use costs two calls to {@link System#nanoTime}. Use it like this:
+ *
+ * <pre>
+ *     long start = TIMER.start();
+ *     ... the phase ...
+ *     TIMER.end(start);
+ * </pre>
+ *
+ * <p>Every timer registers itself by name so that all of them can be
+ * reported; see {@link #getAll}.</p>
+ */
+public final class PhaseTimer {
+    /** {@code non-null;} all timers created so far, in creation order */
+    private static final List<PhaseTimer> ALL =
+        new CopyOnWriteArrayList<PhaseTimer>();
+
+    /** whether timing is on */
+    private static volatile boolean enabled = false;
+
+    /** {@code non-null;} name of the phase, for reporting */
+    private final String name;
+
+    /** number of times the phase ran */
+    private final LongCounter count = new LongCounter();
+
+    /** total time spent in the phase, in nanoseconds */
+    private final LongCounter nanos = new LongCounter();
+
+    /**
+     * Constructs an instance and registers it.
+     *
+     * @param name {@code non-null;} name of the phase, for reporting
+     */
+    public PhaseTimer(String name) {
+        if (name == null) {
+            throw new NullPointerException("name == null");
+        }
+
+        this.name = name;
+        ALL.add(this);
+    }
+
+    /**
+     * Returns every timer created so far, in creation order.
+     *
+     * @return {@code non-null;} the timers
+     */
+    public static List<PhaseTimer> getAll() {
+        return new ArrayList<PhaseTimer>(ALL);
+    }
+
+    /**
+     * Turns timing on or off for all timers.
+     *
+     * @param enabled whether to time phases
+     */
+    public static void setEnabled(boolean enabled) {
+        PhaseTimer.enabled = enabled;
+    }
+
+    /**
+     * Returns whether timing is on.
+     *
+     * @return whether phases are being timed
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Resets all timers to zero.
+     */
+    public static void resetAll() {
+        for (PhaseTimer timer : ALL) {
+            timer.count.reset();
+            timer.nanos.reset();
+        }
+    }
+
+    /**
+     * Notes the start of one run of the phase.
+     *
+     * @return the value to pass to {@link #end}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Notes the end of one run of the phase.
+     *
+     * @param start the value returned by the matching {@link #start}
+     */
+    public void end(long start) {
+        if (start != 0) {
+            nanos.add(System.nanoTime() - start);
+            count.increment();
+        }
+    }
+
+    /**
+     * Gets the name of the phase.
+     *
+     * @return {@code non-null;} the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of times the phase ran.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Gets the total time spent in the phase.
+     *
+     * @return {@code >= 0;} the time, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos.get();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String toString() {
+        return name + ": " + getCount() + " runs, "
+            + (getNanos() / 1000000) + " ms";
+    }
+}
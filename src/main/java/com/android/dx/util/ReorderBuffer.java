@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Puts items produced concurrently and out of order back into sequence.
+ * A producer takes a sequence number with {@link #reserve} when it starts
+ * on an item, in the order the items must be processed, and hands the
+ * item in with {@link #put} whenever it is ready. Items are passed to
+ * {@link #process} one at a time, in sequence number order, by whichever
+ * thread completes the sequence up to them; no thread ever waits for
+ * another.
+ *
+ * <p>Every reserved sequence number must eventually be put, or all the
+ * items after it are held back for good.</p>
+ *
+ * @param <T> type of the items
+ */
+public abstract class ReorderBuffer<T> {
+    /** {@code non-null;} items put but not processed yet, by sequence */
+    private final ConcurrentHashMap<Long, T> pending =
+        new ConcurrentHashMap<Long, T>();
+
+    /** next sequence number to hand out */
+    private final AtomicLong reserved = new AtomicLong();
+
+    /** whether a thread is currently processing items */
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    /**
+     * next sequence number to process; only written by the thread
+     * that set {@link #draining}
+     */
+    private volatile long next;
+
+    /**
+     * Takes the next sequence number.
+     *
+     * @return {@code >= 0;} the sequence number of the item to put later
+     */
+    public final long reserve() {
+        return reserved.getAndIncrement();
+    }
+
+    /**
+     * Hands in a ready item, and processes it and all the items following
+     * it that are ready, if all the items preceding it have been processed.
+     *
+     * @param seq sequence number of the item, from {@link #reserve}
+     * @param item {@code non-null;} the item
+     */
+    public final void put(long seq, T item) {
+        if (item == null) {
+            throw new NullPointerException("item == null");
+        }
+
+        if (pending.put(seq, item) != null) {
+            throw new IllegalStateException("already put: " + seq);
+        }
+
+        drain();
+    }
+
+    /**
+     * Gets the number of items that have been reserved but not processed
+     * yet.
+     *
+     * @return {@code >= 0;} the count
+     */
+    public final long getBacklog() {
+        return reserved.get() - next;
+    }
+
+    /**
+     * Processes one item. Calls are never concurrent, and happen in
+     * sequence number order. This must not throw: items that are ready
+     * after the one it threw for would only be processed once another
+     * item is put.
+     *
+     * @param item {@code non-null;} the item
+     */
+    protected abstract void process(T item);
+
+    /**
+     * Processes the ready items following the last one processed, unless
+     * another thread is already doing so.
+     */
+    private void drain() {
+        while (draining.compareAndSet(false, true)) {
+            try {
+                T item;
+                while ((item = pending.remove(next)) != null) {
+                    next++;
+                    process(item);
+                }
+            } finally {
+                draining.set(false);
+            }
+
+            /*
+             * An item put while this thread was finishing up may have
+             * been left for it; check again after letting go.
+             */
+            if (!pending.containsKey(next)) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.dx.util;
+
+/**
+ * Per-thread time budget for a unit of work that can be abandoned and
+ * redone more cheaply, such as optimizing one method. Long-running loops
+ * call {@link #check} now and then, which throws once the budget of the
+ * current thread is used up; that makes the budget cooperative, so it
+ * bounds the overrun by the time between two checks, not absolutely.
+ *
+ * <p>Whoever redoes the work records it with {@link #recordFallback}, so
+ * that callers further up can tell when a result came out of a fallback,
+ * and for instance not cache it.</p>
+ */
+public final class TimeBudget {
+    /** index in the state of a thread of its deadline, or {@code 0} for none */
+    private static final int DEADLINE = 0;
+
+    /**
+     * index in the state of a thread of whether it recorded a fallback
+     * since the last {@link #takeFallback}, as {@code 0} or {@code 1}
+     */
+    private static final int FALLBACK = 1;
+
+    /** {@code non-null;} state of each thread */
+    private static final ThreadLocal<long[]> STATE =
+        new ThreadLocal<long[]>() {
+            @Override
+            protected long[] initialValue() {
+                return new long[2];
+            }
+        };
+
+    /**
+     * This class is uninstantiable.
+     */
+    private TimeBudget() {
+        // This space intentionally left blank.
+    }
+
+    /**
+     * Starts a budget for the current thread, replacing any previous one.
+     *
+     * @param millis the budget, in milliseconds, or {@code <= 0} for none
+     */
+    public static void start(long millis) {
+        long deadline = 0;
+
+        if (millis > 0) {
+            deadline = System.nanoTime() + millis * 1000000L;
+            if (deadline == 0) {
+                deadline = 1;
+            }
+        }
+
+        STATE.get()[DEADLINE] = deadline;
+    }
+
+    /**
+     * Ends the budget of the current thread, if any.
+     */
+    public static void clear() {
+        STATE.get()[DEADLINE] = 0;
+    }
+
+    /**
+     * Checks the budget of the current thread.
+     *
+     * @throws TimeBudgetExceededException if it is used up
+     */
+    public static void check() {
+        long deadline = STATE.get()[DEADLINE];
+
+        if (deadline != 0 && System.nanoTime() - deadline > 0) {
+            throw new TimeBudgetExceededException();
+        }
+    }
+
+    /**
+     * Records that the current thread abandoned some work over its budget
+     * and redid it more cheaply.
+     */
+    public static void recordFallback() {
+        STATE.get()[FALLBACK] = 1;
+    }
+
+    /**
+     * Gets whether the current thread recorded a fallback since the last
+     * call to this method, and forgets about it.
+     *
+     * @return whether a fallback was recorded
+     */
+    public static boolean takeFallback() {
+        long[] state = STATE.get();
+        boolean result = (state[FALLBACK] != 0);
+
+        state[FALLBACK] = 0;
+        return result;
+    }
+}
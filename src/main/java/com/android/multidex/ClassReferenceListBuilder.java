@@ -16,33 +16,34 @@
 
 package com.android.multidex;
 
-import com.android.dx.cf.direct.DirectClassFile;
-import com.android.dx.rop.cst.Constant;
-import com.android.dx.rop.type.Prototype;
-import com.android.dx.rop.type.StdTypeList;
-import com.android.dx.rop.cst.ConstantPool;
-import com.android.dx.rop.cst.CstFieldRef;
-import com.android.dx.rop.cst.CstMethodRef;
-import com.android.dx.rop.cst.CstType;
-import com.android.dx.rop.type.Type;
-import com.android.dx.rop.type.TypeList;
+import com.android.dx.cf.direct.ClassFileScanner;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
- * Tool to find direct class references to other classes.
+ * Tool to find direct class references to other classes. The references
+ * of the roots are followed in parallel, on a fork/join pool.
  */
 public class ClassReferenceListBuilder {
     private static final String CLASS_EXTENSION = ".class";
 
     private final Path path;
-    private final Set<String> classNames = new HashSet<String>();
+    private final Set<String> classNames =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** classes that have been looked for in {@link #path}, found or not */
+    private final Set<String> visited =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
     public ClassReferenceListBuilder(Path path) {
         this.path = path;
@@ -63,6 +64,21 @@ public class ClassReferenceListBuilder {
      * this is the result of running ProGuard.
      */
     public void addRoots(ZipFile jarOfRoots) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            addRoots(jarOfRoots, pool);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @param jarOfRoots Archive containing the class files resulting of the tracing, typically
+     * this is the result of running ProGuard.
+     * @param pool pool to follow the references on, which may be running other tasks as well.
+     */
+    void addRoots(ZipFile jarOfRoots, ForkJoinPool pool) throws IOException {
+        List<String> roots = new ArrayList<String>();
 
         // keep roots
         for (Enumeration<? extends ZipEntry> entries = jarOfRoots.entries();
@@ -70,25 +86,30 @@ public class ClassReferenceListBuilder {
             ZipEntry entry = entries.nextElement();
             String name = entry.getName();
             if (name.endsWith(CLASS_EXTENSION)) {
-                classNames.add(name.substring(0, name.length() - CLASS_EXTENSION.length()));
+                String className = name.substring(0, name.length() - CLASS_EXTENSION.length());
+                classNames.add(className);
+                visited.add(className);
+                roots.add(name);
             }
         }
 
         // keep direct references of roots (+ direct references hierarchy)
-        for (Enumeration<? extends ZipEntry> entries = jarOfRoots.entries();
-                entries.hasMoreElements();) {
-            ZipEntry entry = entries.nextElement();
-            String name = entry.getName();
-            if (name.endsWith(CLASS_EXTENSION)) {
-                DirectClassFile classFile;
-                try {
-                    classFile = path.getClass(name);
-                } catch (FileNotFoundException e) {
-                    throw new IOException("Class " + name +
-                            " is missing form original class path " + path, e);
-                }
+        final List<RootTask> tasks = new ArrayList<RootTask>(roots.size());
+        for (String name : roots) {
+            tasks.add(new RootTask(name));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
 
-                addDependencies(classFile.getConstantPool());
+        // Report the first missing root in archive order, as a serial walk would.
+        for (RootTask task : tasks) {
+            if (task.missing != null) {
+                throw new IOException("Class " + task.name +
+                        " is missing form original class path " + path, task.missing);
             }
         }
     }
@@ -97,59 +118,80 @@ public class ClassReferenceListBuilder {
         return classNames;
     }
 
-    private void addDependencies(ConstantPool pool) {
-        for (Constant constant : pool.getEntries()) {
-            if (constant instanceof CstType) {
-                checkDescriptor(((CstType) constant).getClassType());
-            } else if (constant instanceof CstFieldRef) {
-                checkDescriptor(((CstFieldRef) constant).getType());
-            } else if (constant instanceof CstMethodRef) {
-                Prototype proto = ((CstMethodRef) constant).getPrototype();
-                checkDescriptor(proto.getReturnType());
-                StdTypeList args = proto.getParameterTypes();
-                for (int i = 0; i < args.size(); i++) {
-                    checkDescriptor(args.get(i));
-                }
-            }
+    /**
+     * Keeps the classes referenced by one root, and their hierarchy.
+     */
+    private class RootTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+        /** set if the root is not in {@link #path} */
+        FileNotFoundException missing;
+
+        RootTask(String name) {
+            this.name = name;
         }
-    }
 
-    private void checkDescriptor(Type type) {
-        String descriptor = type.getDescriptor();
-        if (descriptor.endsWith(";")) {
-            int lastBrace = descriptor.lastIndexOf('[');
-            if (lastBrace < 0) {
-                addClassWithHierachy(descriptor.substring(1, descriptor.length()-1));
-            } else {
-                assert descriptor.length() > lastBrace + 3
-                && descriptor.charAt(lastBrace + 1) == 'L';
-                addClassWithHierachy(descriptor.substring(lastBrace + 2,
-                        descriptor.length() - 1));
+        @Override
+        protected void compute() {
+            ClassFileScanner classFile;
+            try {
+                classFile = path.getClass(name);
+            } catch (FileNotFoundException e) {
+                missing = e;
+                return;
             }
+
+            final List<HierarchyTask> tasks = new ArrayList<HierarchyTask>();
+            classFile.visitReferencedClasses(new ClassFileScanner.ClassVisitor() {
+                @Override
+                public void visitClass(String className) {
+                    tasks.add(new HierarchyTask(className));
+                }
+            });
+            invokeAll(tasks);
         }
     }
 
-    private void addClassWithHierachy(String classBinaryName) {
-        if (classNames.contains(classBinaryName)) {
-            return;
+    /**
+     * Keeps a class and its hierarchy, unless it has been looked for
+     * already.
+     */
+    private class HierarchyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final String classBinaryName;
+
+        HierarchyTask(String classBinaryName) {
+            this.classBinaryName = classBinaryName;
         }
 
-        try {
-            DirectClassFile classFile = path.getClass(classBinaryName + CLASS_EXTENSION);
+        @Override
+        protected void compute() {
+            if (!visited.add(classBinaryName)) {
+                return;
+            }
+
+            ClassFileScanner classFile;
+            try {
+                classFile = path.getClass(classBinaryName + CLASS_EXTENSION);
+            } catch (FileNotFoundException e) {
+                // Ignore: The referenced type is not in the path it must be part of the libraries.
+                return;
+            }
+
             classNames.add(classBinaryName);
-            CstType superClass = classFile.getSuperclass();
+            List<HierarchyTask> tasks = new ArrayList<HierarchyTask>();
+            String superClass = classFile.getSuperclass();
             if (superClass != null) {
-                addClassWithHierachy(superClass.getClassType().getClassName());
+                tasks.add(new HierarchyTask(superClass));
             }
 
-            TypeList interfaceList = classFile.getInterfaces();
-            int interfaceNumber = interfaceList.size();
+            int interfaceNumber = classFile.getInterfaceCount();
             for (int i = 0; i < interfaceNumber; i++) {
-                addClassWithHierachy(interfaceList.getType(i).getClassName());
+                tasks.add(new HierarchyTask(classFile.getInterface(i)));
             }
-        } catch (FileNotFoundException e) {
-            // Ignore: The referenced type is not in the path it must be part of the libraries.
+            invokeAll(tasks);
         }
     }
-
 }
@@ -16,17 +16,15 @@
 
 package com.android.multidex;
 
-import com.android.dx.cf.direct.DirectClassFile;
-import com.android.dx.cf.iface.FieldList;
-import com.android.dx.cf.attrib.AttRuntimeVisibleAnnotations;
-import com.android.dx.cf.iface.Attribute;
-import com.android.dx.cf.iface.HasAttribute;
-import com.android.dx.cf.iface.MethodList;
-
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.zip.ZipFile;
 
 /**
@@ -45,6 +43,9 @@ public class MainDexListBuilder {
 
     private static final int STATUS_ERROR = 1;
 
+    /** max number of classes checked for annotations by one task */
+    private static final int ANNOTATION_SCAN_CHUNK = 64;
+
     private static final String EOL = System.getProperty("line.separator");
 
     private static String USAGE_MESSAGE =
@@ -66,7 +67,11 @@ public class MainDexListBuilder {
     private static final String DISABLE_ANNOTATION_RESOLUTION_WORKAROUND =
             "--disable-annotation-resolution-workaround";
 
-    private Set<String> filesToKeep = new HashSet<String>();
+    /**
+     * Classes to keep, in the order they are printed: the closure of the
+     * roots sorted by name, then the annotated classes in class path order.
+     */
+    private Set<String> filesToKeep = new LinkedHashSet<String>();
 
     public static void main(String[] args) {
 
@@ -103,6 +108,7 @@ public class MainDexListBuilder {
             throws IOException {
         ZipFile jarOfRoots = null;
         Path path = null;
+        ForkJoinPool pool = new ForkJoinPool();
         try {
             try {
                 jarOfRoots = new ZipFile(rootJar);
@@ -112,15 +118,28 @@ public class MainDexListBuilder {
             }
             path = new Path(pathString);
 
+            // Scan for annotated classes while following the references of
+            // the roots, in the same pool, so that both share the classes
+            // cached by the path.
+            AnnotationScanTask annotationScan = null;
+            if (keepAnnotated) {
+                annotationScan = new AnnotationScanTask(path, listClasses(path));
+                pool.execute(annotationScan);
+            }
+
             ClassReferenceListBuilder mainListBuilder = new ClassReferenceListBuilder(path);
-            mainListBuilder.addRoots(jarOfRoots);
-            for (String className : mainListBuilder.getClassNames()) {
+            mainListBuilder.addRoots(jarOfRoots, pool);
+            String[] classNames = mainListBuilder.getClassNames().toArray(new String[0]);
+            Arrays.sort(classNames);
+            for (String className : classNames) {
                 filesToKeep.add(className + CLASS_EXTENSION);
             }
-            if (keepAnnotated) {
-                keepAnnotated(path);
+            if (annotationScan != null) {
+                annotationScan.keepAnnotated();
             }
         } finally {
+            // Also stops the annotation scan, if something went wrong.
+            pool.shutdownNow();
             try {
                 jarOfRoots.close();
             } catch (IOException e) {
@@ -156,40 +175,85 @@ public class MainDexListBuilder {
     }
 
     /**
-     * Keep classes annotated with runtime annotations.
+     * Lists the class files of the path, in path order.
      */
-    private void keepAnnotated(Path path) throws FileNotFoundException {
+    private static List<String> listClasses(Path path) {
+        List<String> names = new ArrayList<String>();
         for (ClassPathElement element : path.getElements()) {
-            forClazz:
-                for (String name : element.list()) {
-                    if (name.endsWith(CLASS_EXTENSION)) {
-                        DirectClassFile clazz = path.getClass(name);
-                        if (hasRuntimeVisibleAnnotation(clazz)) {
-                            filesToKeep.add(name);
-                        } else {
-                            MethodList methods = clazz.getMethods();
-                            for (int i = 0; i<methods.size(); i++) {
-                                if (hasRuntimeVisibleAnnotation(methods.get(i))) {
-                                    filesToKeep.add(name);
-                                    continue forClazz;
-                                }
-                            }
-                            FieldList fields = clazz.getFields();
-                            for (int i = 0; i<fields.size(); i++) {
-                                if (hasRuntimeVisibleAnnotation(fields.get(i))) {
-                                    filesToKeep.add(name);
-                                    continue forClazz;
-                                }
-                            }
-                        }
-                    }
+            for (String name : element.list()) {
+                if (name.endsWith(CLASS_EXTENSION)) {
+                    names.add(name);
                 }
+            }
         }
+        return names;
     }
 
-    private boolean hasRuntimeVisibleAnnotation(HasAttribute element) {
-        Attribute att = element.getAttributes().findFirst(
-                AttRuntimeVisibleAnnotations.ATTRIBUTE_NAME);
-        return (att != null && ((AttRuntimeVisibleAnnotations)att).getAnnotations().size()>0);
+    /**
+     * Finds the classes annotated with runtime annotations, splitting the
+     * work among the threads of its pool.
+     */
+    private class AnnotationScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path path;
+        private final List<String> names;
+        /** whether each class of {@link #names} is annotated */
+        private final boolean[] annotated;
+        private final int start;
+        private final int end;
+        /** set if a class of the path could not be read */
+        private volatile FileNotFoundException missing;
+
+        AnnotationScanTask(Path path, List<String> names) {
+            this(path, names, new boolean[names.size()], 0, names.size());
+        }
+
+        private AnnotationScanTask(Path path, List<String> names, boolean[] annotated,
+                int start, int end) {
+            this.path = path;
+            this.names = names;
+            this.annotated = annotated;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > ANNOTATION_SCAN_CHUNK) {
+                int middle = (start + end) >>> 1;
+                AnnotationScanTask left =
+                        new AnnotationScanTask(path, names, annotated, start, middle);
+                AnnotationScanTask right =
+                        new AnnotationScanTask(path, names, annotated, middle, end);
+                invokeAll(left, right);
+                missing = (left.missing != null) ? left.missing : right.missing;
+                return;
+            }
+
+            for (int i = start; i < end; i++) {
+                try {
+                    annotated[i] = path.getClass(names.get(i)).hasRuntimeVisibleAnnotations();
+                } catch (FileNotFoundException e) {
+                    missing = e;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Waits for the scan to end, then keeps the annotated classes.
+         */
+        void keepAnnotated() throws FileNotFoundException {
+            join();
+            if (missing != null) {
+                throw missing;
+            }
+            for (int i = 0; i < annotated.length; i++) {
+                if (annotated[i]) {
+                    filesToKeep.add(names.get(i));
+                }
+            }
+        }
     }
 }
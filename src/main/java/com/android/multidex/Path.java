@@ -16,8 +16,8 @@
 
 package com.android.multidex;
 
-import com.android.dx.cf.direct.DirectClassFile;
-import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.cf.direct.ClassFileScanner;
+import com.android.dx.util.ByteArray;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -25,13 +25,25 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 class Path {
 
+    /** max number of scanned classes kept by {@link #getClass} */
+    static final int CLASS_CACHE_SIZE = 4096;
+
+    /**
+     * number of independently locked shards of the class cache; a power
+     * of two
+     */
+    private static final int CLASS_CACHE_SHARDS = 16;
+
     static ClassPathElement getClassPathElement(File file)
             throws ZipException, IOException {
         if (file.isDirectory()) {
@@ -48,8 +60,17 @@ class Path {
 
     List<ClassPathElement> elements = new ArrayList<ClassPathElement>();
     private final String definition;
-    private final ByteArrayOutputStream baos = new ByteArrayOutputStream(40 * 1024);
-    private final byte[] readBuffer = new byte[20 * 1024];
+
+    /**
+     * first element holding each file, by path relative to the element;
+     * only written by the constructor
+     */
+    private final Map<String, ClassPathElement> index =
+            new HashMap<String, ClassPathElement>();
+
+    /** shards of the cache of scanned classes, by hash of the path */
+    private final ClassCacheShard[] classCache =
+            new ClassCacheShard[CLASS_CACHE_SHARDS];
 
     Path(String definition) throws IOException {
         this.definition = definition;
@@ -60,10 +81,14 @@ class Path {
                 throw new IOException("Wrong classpath: " + e.getMessage(), e);
             }
         }
+        for (int i = 0; i < CLASS_CACHE_SHARDS; i++) {
+            classCache[i] = new ClassCacheShard(CLASS_CACHE_SIZE / CLASS_CACHE_SHARDS);
+        }
     }
 
-    private static byte[] readStream(InputStream in, ByteArrayOutputStream baos, byte[] readBuffer)
-            throws IOException {
+    private static byte[] readStream(InputStream in) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(40 * 1024);
+        byte[] readBuffer = new byte[20 * 1024];
         try {
             for (;;) {
                 int amt = in.read(readBuffer);
@@ -79,6 +104,17 @@ class Path {
         return baos.toByteArray();
     }
 
+    /**
+     * Strips the leading separator that {@link FolderPathElement#list}
+     * puts on the paths it returns.
+     */
+    private static String normalize(String path) {
+        if (path.length() > 0 && path.charAt(0) == ClassPathElement.SEPARATOR_CHAR) {
+            return path.substring(1);
+        }
+        return path;
+    }
+
     @Override
     public String toString() {
         return definition;
@@ -91,29 +127,91 @@ class Path {
     private void addElement(ClassPathElement element) {
         assert element != null;
         elements.add(element);
+        for (String name : element.list()) {
+            String key = normalize(name);
+            if (!index.containsKey(key)) {
+                index.put(key, element);
+            }
+        }
     }
 
-    synchronized DirectClassFile getClass(String path) throws FileNotFoundException {
-        DirectClassFile classFile = null;
-        for (ClassPathElement element : elements) {
-            try {
-                InputStream in = element.open(path);
+    /**
+     * Gets the class file at the given path, from the first element of
+     * this path that has it. Only the constant pool and the parts of the
+     * class that the multidex tools look at are read, see {@link
+     * ClassFileScanner}, and recently used classes are kept so that asking
+     * for them again is cheap. This may be called from several threads at
+     * once.
+     *
+     * @param path {@code non-null;} '/' separated path of the class file
+     * @return {@code non-null;} the scanned class file
+     * @throws FileNotFoundException if no element has the class file, or
+     * none of those that have it can read it; its cause is then the first
+     * I/O error
+     */
+    ClassFileScanner getClass(String path) throws FileNotFoundException {
+        String key = normalize(path);
+        ClassCacheShard shard =
+                classCache[key.hashCode() & (CLASS_CACHE_SHARDS - 1)];
+
+        ClassFileScanner classFile = shard.get(key);
+        if (classFile != null) {
+            return classFile;
+        }
+
+        IOException failure = null;
+        ClassPathElement element = index.get(key);
+        if (element != null) {
+            // If the first element holding the file can't read it, search
+            // the next ones, as a lookup in every element would.
+            for (int i = elements.indexOf(element); i < elements.size(); i++) {
                 try {
-                    byte[] bytes = readStream(in, baos, readBuffer);
-                    baos.reset();
-                    classFile = new DirectClassFile(bytes, path, false);
-                    classFile.setAttributeFactory(StdAttributeFactory.THE_ONE);
+                    byte[] bytes = readStream(elements.get(i).open(key));
+                    classFile = new ClassFileScanner(new ByteArray(bytes), path);
                     break;
-                } finally {
-                    in.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
                 }
-            } catch (IOException e) {
-                // search next element
             }
         }
         if (classFile == null) {
-            throw new FileNotFoundException("File \"" + path + "\" not found");
+            FileNotFoundException e =
+                    new FileNotFoundException("File \"" + path + "\" not found");
+            if (failure != null) {
+                e.initCause(failure);
+            }
+            throw e;
         }
+
+        shard.put(key, classFile);
         return classFile;
     }
-}
\ No newline at end of file
+
+    /**
+     * One shard of the cache of scanned classes, dropping the least
+     * recently used classes once it is full.
+     */
+    private static class ClassCacheShard {
+        private final LinkedHashMap<String, ClassFileScanner> classes;
+
+        ClassCacheShard(final int capacity) {
+            classes = new LinkedHashMap<String, ClassFileScanner>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, ClassFileScanner> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized ClassFileScanner get(String path) {
+            return classes.get(path);
+        }
+
+        synchronized void put(String path, ClassFileScanner classFile) {
+            classes.put(path, classFile);
+        }
+    }
+}